@@ -0,0 +1,153 @@
+package burp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.thisptr.jackson.jq.exception.JsonQueryException;
+import net.thisptr.jackson.jq.JsonQuery;
+import net.thisptr.jackson.jq.Scope;
+import net.thisptr.jackson.jq.Version;
+
+
+// Builtin functions loaded into a scope in the background, so that loading the extension does not wait for them
+// Queries only wait when they run before loading ended, scope is never read before that
+public class Builtins {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final byte[] SAMPLE = ("{\"id\":1,\"name\":\"user\",\"email\":null,\"tags\":[\"a\",\"b\",\"c\"],"
+        + "\"nested\":{\"enabled\":true,\"score\":1.5,\"items\":[{\"id\":2,\"role\":\"admin\"},{\"id\":3,\"role\":\"user\"}]}}").getBytes();
+    // Typical filters, going through paths, iteration, builtins defined in jq and in Java, regexes and formats
+    private static final List<String> FILTERS = Arrays.asList(
+        ".", ".name", ".nested.items[].id", ".[]?", "..", "keys", "length", "[paths]", "to_entries", "with_entries(select(.value != null))",
+        "map_values(type)", "[.. | numbers] | add", ".tags | map(ascii_upcase) | join(\",\")", "select(.id == 1)",
+        "[.nested.items[] | select(.role == \"admin\")]", ".nested.items | sort_by(.id) | reverse | unique_by(.role)",
+        ".nested.items | group_by(.role) | map({key: .[0].role, value: length}) | from_entries", "del(.email) | has(\"email\")",
+        "tostring | fromjson", "reduce .tags[] as $tag (0; . + 1)", "[leaf_paths | join(\".\")?]", ".name | test(\"^u\"; \"i\")",
+        ".name | @base64", ".nested | any(.[]; . == true)", "[limit(2; .tags[])]", "if .id > 0 then \"positive\" else empty end",
+        ".nested.items[0] + {extra: [range(3)]}", "try error(\"x\") catch .");
+    private static final int WARM_UP_PASSES = 200;
+    private static final long WARM_UP_MAX_MILLIS = 2000;
+
+    private final Version version;
+    private final CompletableFuture<Scope> loaded;
+    private long loadMillis = -1;
+
+    // Load builtins of version into a new scope on executor, each of them interruptible
+    public Builtins(Version version, Executor executor) {
+        this.version = version;
+        loaded = CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            Scope scope = Scope.newEmptyScope();
+            InterruptibleFunction.loadFunctions(version, scope);
+            loadMillis = (System.nanoTime() - start) / 1000000;
+            return scope;
+        }, executor);
+    }
+
+    // Scope with builtin functions, waiting for them to load
+    // An interrupted wait fails like an interrupted evaluation, with the thread still interrupted
+    public Scope get() throws JsonQueryException {
+        try {
+            return loaded.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JsonQueryException(InterruptibleFunction.INTERRUPTED);
+        } catch (ExecutionException e) {
+            throw new JsonQueryException("Loading builtin functions failed: " + e.getCause());
+        }
+    }
+
+    // Run action on executor once builtins loaded, never on the calling thread, e.g. to warm up
+    public CompletableFuture<Void> whenLoaded(Runnable action, Executor executor) {
+        return loaded.thenRunAsync(action, executor);
+    }
+
+    // Milliseconds spent loading, -1 until loaded
+    public long getLoadMillis() {
+        return loadMillis;
+    }
+
+    // Compile, cache and run typical filters then favourites over a sample, until they ran passes times or the time budget is spent
+    // Warms the JIT through parsing, evaluation and rendering so that the first real query runs as fast as later ones
+    // Returns the number of filters that compiled, invalid favourites are skipped
+    public int warmUp(JqCache queryCache, Collection<String> favourites) throws InterruptedException {
+
+        Scope scope;
+        try {
+            scope = get();
+        } catch (JsonQueryException e) {
+            return 0;
+        }
+
+        Set<String> filters = new LinkedHashSet<String>(FILTERS);
+        for (String favourite : favourites)
+            if (favourite != null && !favourite.trim().isEmpty())
+                filters.add(favourite.trim());
+        List<JsonQuery> queries = new ArrayList<JsonQuery>(filters.size());
+        for (String filter : filters) {
+            try {
+                queries.add(queryCache.compile(filter, version));
+            } catch (JsonQueryException e) {
+                continue;
+            }
+        }
+
+        // Below Burp and evaluation threads, where the platform honours priorities
+        Thread thread = Thread.currentThread();
+        int priority = thread.getPriority();
+        thread.setPriority(Thread.MIN_PRIORITY);
+        try {
+            run(scope, queries);
+        } finally {
+            thread.setPriority(priority);
+        }
+        return queries.size();
+    }
+
+    // The deadline interrupts runaway filters too, e.g. favourites like repeat(.) or range(1e12) that never end
+    private static void run(Scope scope, List<JsonQuery> queries) throws InterruptedException {
+        Deadline deadline = new Deadline(WARM_UP_MAX_MILLIS);
+        boolean expired;
+        try {
+            warm:
+            for (int pass = 0; pass < WARM_UP_PASSES; pass++) {
+                for (JsonQuery jq : queries) {
+                    if (Thread.currentThread().isInterrupted())
+                        break warm;
+                    try {
+                        JsonNode input = mapper.readTree(SAMPLE);
+                        Renderer output = new Renderer(true, true, 1 << 16);
+                        jq.apply(scope, input, (out) -> {
+                            if (Thread.currentThread().isInterrupted())
+                                throw new JsonQueryException(InterruptibleFunction.INTERRUPTED);
+                            try {
+                                output.write(out);
+                            } catch (IOException e) {
+                                throw new JsonQueryException(e);
+                            }
+                        });
+                        output.toByteArray();
+                    } catch (IOException | RuntimeException | StackOverflowError e) {
+                        continue;
+                    }
+                }
+            }
+        } finally {
+            expired = deadline.stop();
+        }
+
+        // Time is up once interrupted by the deadline, any other interrupt stops warming up
+        if (!expired && Thread.currentThread().isInterrupted())
+            throw new InterruptedException();
+    }
+}
@@ -1,56 +1,116 @@
 package burp;
 
 import java.awt.BorderLayout;
+import java.awt.CardLayout;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.event.ActionEvent;
+import java.awt.event.HierarchyEvent;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.awt.FlowLayout;
 import java.awt.Font;
-import java.lang.StringBuilder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.List;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.JCheckBox;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JTabbedPane;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
 import javax.swing.text.DefaultCaret;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 // https://github.com/eiiches/jackson-jq
 // https://github.com/FasterXML
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.util.DefaultIndenter;
-import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.json.JsonWriteFeature;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import net.thisptr.jackson.jq.BuiltinFunctionLoader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import net.thisptr.jackson.jq.exception.JsonQueryException;
 import net.thisptr.jackson.jq.JsonQuery;
+import net.thisptr.jackson.jq.Output;
 import net.thisptr.jackson.jq.Scope;
 import net.thisptr.jackson.jq.Version;
 import net.thisptr.jackson.jq.Versions;
 
 
-public class BurpExtender implements IBurpExtender, IMessageEditorTabFactory {
+public class BurpExtender implements IBurpExtender, IExtensionStateListener, IMessageEditorTabFactory, ITab {
 
     private IBurpExtenderCallbacks callbacks;
     private IExtensionHelpers helpers;
+    private Builtins builtins;
+    private JqChecks checks;
+    private JqHistoryTab historyTab;
+    private JqIndex index;
+    private JqMetricsTab metricsTab;
+    private JqRules rules;
+    private JTabbedPane suiteTab;
+    private int keysMaxDepth = KEYS_MAX_DEPTH;
+    private int keysMaxNodes = KEYS_MAX_NODES;
+    private int liveDelay = LIVE_DELAY;
+    private int evaluationMaxMillis = EVALUATION_MAX_MILLIS;
+    private int outputMaxBytes = OUTPUT_MAX_BYTES;
+    private int outputMaxResults = OUTPUT_MAX_RESULTS;
+    private int outputPageSize = OUTPUT_PAGE_SIZE;
+    private int streamingMinBytes = STREAMING_MIN_BYTES;
     private static final Color colorError = new Color(247, 66, 62);
     private static final Color colorOK = new Color(81, 179, 100);
+    private static final Color colorRunning = new Color(93, 138, 189);
     private static final Color colorWarning = new Color(252, 151, 78);
+    private static final int QUERY_CACHE_SIZE = 128;
+    private static final JqCache queryCache = new JqCache(QUERY_CACHE_SIZE);
+    private static final int METRICS_SIZE = 1024;
+    private static final Metrics metrics = new Metrics(METRICS_SIZE);
+    private static volatile List<JsonNode> pinned;
+    private static final TreeCache treeCache = new TreeCache(Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 8));
     private static final ObjectMapper mapper = new ObjectMapper();
-    private static final Scope scope = Scope.newEmptyScope();
+    private static final String CANCELLED = "Evaluation cancelled";
+    private static final String NOTHING_PINNED = "Nothing pinned yet, Pin the message to diff against first";
+    private static final String RESULTS_EXCEEDED = "Evaluation stopped after %d results (outputMaxResults setting)";
+    private static final String TIME_EXCEEDED = "Evaluation stopped after %d ms (evaluationMaxMillis setting)";
+    private static final String DIFF_STOPPED = "%s, changes are only computed between complete results";
     private static final String COMMIT_ACTION = "commit";
-    private static final Version jqVersion = Versions.JQ_1_6;
+    private static final String NEXT_ACTION = "next";
+    private static final String PREVIOUS_ACTION = "previous";
+    private static final String EDITOR_CARD = "editor";
+    private static final String PAGED_CARD = "paged";
+    private static final int KEYS_MAX_DEPTH = 64;
+    private static final int KEYS_MAX_NODES = 100000;
+    private static final int LIVE_DELAY = 300;
+    static final int EVALUATION_MAX_MILLIS = 10000;
+    private static final int OUTPUT_MAX_BYTES = 8 << 20;
+    static final int OUTPUT_MAX_RESULTS = 1000000;
+    private static final int OUTPUT_PAGE_SIZE = 1000;
+    private static final int MEMO_MAX_RESULTS = 10000;
+    private static final int STREAMING_MIN_BYTES = 16 << 20;
+    private static final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "JQ evaluation");
+        thread.setDaemon(true);
+        return thread;
+    });
+    static final Version jqVersion = Versions.JQ_1_6;
 
     @Override
     public void registerExtenderCallbacks(IBurpExtenderCallbacks callbacks) {
@@ -58,16 +118,193 @@ public class BurpExtender implements IBurpExtender, IMessageEditorTabFactory {
         this.callbacks = callbacks;
         helpers = callbacks.getHelpers();
         callbacks.setExtensionName("JQ");
+        callbacks.registerExtensionStateListener(BurpExtender.this);
+
+        // Settings
+        keysMaxDepth = loadSetting("keysMaxDepth", KEYS_MAX_DEPTH);
+        keysMaxNodes = loadSetting("keysMaxNodes", KEYS_MAX_NODES);
+        liveDelay = loadSetting("liveDelay", LIVE_DELAY);
+        evaluationMaxMillis = loadSetting("evaluationMaxMillis", EVALUATION_MAX_MILLIS);
+        outputMaxBytes = loadSetting("outputMaxBytes", OUTPUT_MAX_BYTES);
+        outputMaxResults = loadSetting("outputMaxResults", OUTPUT_MAX_RESULTS);
+        outputPageSize = loadSetting("outputPageSize", OUTPUT_PAGE_SIZE);
+        streamingMinBytes = loadSetting("streamingMinBytes", STREAMING_MIN_BYTES);
+        boolean warmUp = !"false".equals(callbacks.loadExtensionSetting("warmUp"));
+
+        // Jackson JQ, with builtins stopping runaway filters when interrupted
+        // Loaded in the background, queries wait for them only if they run before
+        builtins = new Builtins(jqVersion, executor);
 
         // UI
         callbacks.registerMessageEditorTabFactory(BurpExtender.this);
+        historyTab = new JqHistoryTab(callbacks, queryCache, builtins, jqVersion, evaluationMaxMillis);
+        rules = new JqRules(callbacks, queryCache, builtins, jqVersion, evaluationMaxMillis);
+        checks = new JqChecks(callbacks, queryCache, builtins, jqVersion, evaluationMaxMillis, outputMaxResults);
+        suiteTab = new JTabbedPane();
+        suiteTab.addTab("History", historyTab.getUiComponent());
+        suiteTab.addTab("Rules", rules.getUiComponent());
+        suiteTab.addTab("Checks", checks.getUiComponent());
+        index = new JqIndex(callbacks, queryCache, builtins, jqVersion, keysMaxDepth, keysMaxNodes);
+        suiteTab.addTab("Index", index.getUiComponent());
+        metricsTab = new JqMetricsTab(callbacks, metrics, queryCache);
+        suiteTab.addTab("Metrics", metricsTab.getUiComponent());
+        callbacks.addSuiteTab(BurpExtender.this);
+        callbacks.registerContextMenuFactory(historyTab);
+
+        // Rules and checks wait for builtin functions on their first message
+        callbacks.registerHttpListener(rules);
+        callbacks.registerScannerCheck(checks);
+        callbacks.registerIntruderPayloadProcessor(checks);
+        callbacks.registerHttpListener(index);
+
+        // Then typical filters and favourites run until the JIT compiled them, once registered
+        List<String> favourites = new ArrayList<String>(rules.getFilters());
+        favourites.addAll(checks.getFilters());
+        builtins.whenLoaded(() -> {
+            callbacks.printOutput(String.format("Builtin functions loaded in %d ms", builtins.getLoadMillis()));
+            if (!warmUp)
+                return;
+            long start = System.nanoTime();
+            try {
+                int count = builtins.warmUp(queryCache, favourites);
+                callbacks.printOutput(String.format("Warmed up %d filters in %d ms", count, (System.nanoTime() - start) / 1000000));
+            } catch (InterruptedException e) {
+                return;
+            }
+        }, executor);
+    }
+
+    @Override
+    public String getTabCaption() {
+        return "JQ";
+    }
+
+    @Override
+    public Component getUiComponent() {
+        return suiteTab;
+    }
+
+    // Load positive integer extension setting, or default value if unset or invalid
+    private int loadSetting(String name, int value) {
+
+        String setting = callbacks.loadExtensionSetting(name);
+        if (setting == null)
+            return value;
+
+        try {
+            return Math.max(0, Integer.parseInt(setting.trim()));
+        } catch (NumberFormatException e) {
+            callbacks.printError("Invalid " + name + " setting, using " + value);
+            return value;
+        }
+    }
+
+    @Override
+    public void extensionUnloaded() {
+        executor.shutdownNow();
+        ParallelQuery.shutdown();
+        Deadline.shutdown();
+        historyTab.shutdown();
+        rules.shutdown();
+        checks.shutdown();
+        index.shutdown();
+        metricsTab.shutdown();
+        callbacks.printOutput(queryCache.toString());
+        callbacks.printOutput(treeCache.toString());
+    }
+
+    // Parse JSON straight from the message bytes between start and end, decoding with the Content-Type charset if needed
+    static JsonNode readBody(byte[] content, int start, int end, Charset charset) throws IOException {
+
+        // Jackson detects UTF-8, UTF-16 and UTF-32 by itself from the raw bytes
+        if (charset == null || charset.name().startsWith("UTF-"))
+            return mapper.readTree(content, start, end - start);
+
+        return mapper.readTree(new InputStreamReader(new ByteArrayInputStream(content, start, end - start), charset));
+    }
+
+    // Parse each JSON value of the message bytes, several for NDJSON or concatenated JSON bodies
+    static List<JsonNode> readRecords(byte[] content, int start, int end, Charset charset) throws IOException {
+
+        List<JsonNode> records = new ArrayList<JsonNode>();
+        try (MappingIterator<JsonNode> iterator = mapper.readerFor(JsonNode.class).readValues(createParser(content, start, end, charset))) {
+            while (iterator.hasNextValue())
+                records.add(iterator.nextValue());
+        }
+        return records;
+    }
 
-        // Jackson JQ
-        DefaultPrettyPrinter prettyPrinter = new DefaultPrettyPrinter();
-        prettyPrinter.indentArraysWith(DefaultIndenter.SYSTEM_LINEFEED_INSTANCE);
-        mapper.setDefaultPrettyPrinter(prettyPrinter);
-        mapper.configure(SerializationFeature.INDENT_OUTPUT, true);
-        BuiltinFunctionLoader.getInstance().loadFunctions(jqVersion, scope);
+    // Serialize records back into a body, one per line like NDJSON, encoded with the Content-Type charset if any
+    // Other charsets than Unicode ones get non ASCII characters escaped, so that none is lost
+    static byte[] writeRecords(List<JsonNode> records, Charset charset) throws IOException {
+
+        if (charset == null || charset.equals(StandardCharsets.UTF_8)) {
+            if (records.size() == 1)
+                return mapper.writeValueAsBytes(records.get(0));
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            for (JsonNode record : records) {
+                mapper.writeValue(body, record);
+                body.write('\n');
+            }
+            return body.toByteArray();
+        }
+
+        ObjectWriter writer = charset.name().startsWith("UTF-") ? mapper.writer() : mapper.writer().with(JsonWriteFeature.ESCAPE_NON_ASCII);
+        if (records.size() == 1)
+            return writer.writeValueAsString(records.get(0)).getBytes(charset);
+        StringBuilder body = new StringBuilder();
+        for (JsonNode record : records)
+            body.append(writer.writeValueAsString(record)).append('\n');
+        return body.toString().getBytes(charset);
+    }
+
+    // Token stream over the message bytes, decoding with the Content-Type charset if needed
+    static JsonParser createParser(byte[] content, int start, int end, Charset charset) throws IOException {
+
+        if (charset == null || charset.name().startsWith("UTF-"))
+            return mapper.getFactory().createParser(content, start, end - start);
+
+        return mapper.getFactory().createParser(new InputStreamReader(new ByteArrayInputStream(content, start, end - start), charset));
+    }
+
+    // Message body too large to be materialized, parsed again on each evaluation
+    static class Body {
+
+        private final byte[] content;
+        private final int start;
+        private final int end;
+        private final Charset charset;
+
+        Body(byte[] content, int start, int end, Charset charset) {
+            this.content = content;
+            this.start = start;
+            this.end = end;
+            this.charset = charset;
+        }
+
+        JsonParser createParser() throws IOException {
+            return BurpExtender.createParser(content, start, end, charset);
+        }
+    }
+
+    // Results of filters over the same inputs, before helpers and rendering
+    static class Results {
+
+        private final String filters;
+        private final List<JsonNode> inputs;
+        private final Body body;
+        private final List<JsonNode> results;
+
+        Results(String filters, List<JsonNode> inputs, Body body, List<JsonNode> results) {
+            this.filters = filters;
+            this.inputs = inputs;
+            this.body = body;
+            this.results = results;
+        }
+
+        boolean matches(String filters, List<JsonNode> inputs, Body body) {
+            return this.filters.equals(filters) && this.inputs == inputs && this.body == body;
+        }
     }
 
     class JQTab implements IMessageEditorTab {
@@ -75,13 +312,35 @@ public class BurpExtender implements IBurpExtender, IMessageEditorTabFactory {
         private ITextEditor outputArea;
         private JCheckBox checkBoxFilterOutNulls;
         private JCheckBox checkBoxKeys;
+        private JCheckBox checkBoxLive;
+        private JCheckBox checkBoxPaged;
+        private JCheckBox checkBoxDiff;
+        private JCheckBox checkBoxRewrite;
+        private JButton buttonShowMore;
+        private long outputLimit = outputMaxBytes;
         private JCheckBox checkBoxPretty;
         private JCheckBox checkBoxRaw;
         private JCheckBox checkBoxSort;
         private JCheckBox checkBoxUnique;
         private JPanel container = new JPanel(new BorderLayout());
+        private JPanel outputs = new JPanel(new CardLayout());
+        private ResultsView resultsView;
+        private boolean pagedShown;
+        private Future<?> evaluation;
+        private JLabel labelMetrics;
+        private Metrics.Run load;
+        private boolean loadReported = true;
+        private Timer watchdog;
+        private final AtomicLong generation = new AtomicLong();
+        private boolean isRequest;
+        private boolean loaded = true;
+        private byte[] message;
         private JqComplete jqComplete;
-        private JsonNode input;
+        private List<JsonNode> inputs;
+        private Body stream;
+        private ContentSniffer lastSniffed;
+        private JsonNode rewritten;
+        private Results results;
         private JTextField filtersBar;
         
         public JQTab(IMessageEditorController controller, boolean editable) {
@@ -100,8 +359,20 @@ public class BurpExtender implements IBurpExtender, IMessageEditorTabFactory {
              *      |         JCheckBox checkBoxUnique
              *      |         JCheckBox checkBoxFilterOutNulls
              *      |         JCheckBox checkBoxKeys
+             *      |         JCheckBox checkBoxLive
+             *      |         JCheckBox checkBoxPaged
+             *      |         JButton buttonPin
+             *      |         JCheckBox checkBoxDiff
+             *      |         JCheckBox checkBoxRewrite (editable only)
+             *      |         JButton buttonShowMore
+             *      |     JPanel status
+             *      |       FlowLayout LEFT
+             *      |         JLabel labelMetrics
              *      CENTER
-             *        ITextEditor outputArea
+             *        JPanel outputs
+             *          CardLayout
+             *            ITextEditor outputArea
+             *            ResultsView resultsView
              */
 
             // Filters container
@@ -127,6 +398,30 @@ public class BurpExtender implements IBurpExtender, IMessageEditorTabFactory {
             filtersBar.getDocument().addDocumentListener(jqComplete);
             filtersBar.getInputMap().put(KeyStroke.getKeyStroke("TAB"), COMMIT_ACTION);
             filtersBar.getActionMap().put(COMMIT_ACTION, jqComplete.new CommitAction());
+            filtersBar.getInputMap().put(KeyStroke.getKeyStroke("DOWN"), NEXT_ACTION);
+            filtersBar.getActionMap().put(NEXT_ACTION, jqComplete.new CycleAction(1));
+            filtersBar.getInputMap().put(KeyStroke.getKeyStroke("UP"), PREVIOUS_ACTION);
+            filtersBar.getActionMap().put(PREVIOUS_ACTION, jqComplete.new CycleAction(-1));
+
+            // Live filtering, debounced so a burst of keystrokes costs one evaluation
+            Timer liveTimer = new Timer(liveDelay, e -> applyFilters(true));
+            liveTimer.setRepeats(false);
+            filtersBar.getDocument().addDocumentListener(new DocumentListener() {
+                @Override
+                public void changedUpdate(DocumentEvent ev) { }
+
+                @Override
+                public void removeUpdate(DocumentEvent ev) {
+                    if (checkBoxLive.isSelected())
+                        liveTimer.restart();
+                }
+
+                @Override
+                public void insertUpdate(DocumentEvent ev) {
+                    if (checkBoxLive.isSelected())
+                        liveTimer.restart();
+                }
+            });
 
             // Filters helpers
             JPanel filtersHelpers = new JPanel(new FlowLayout(FlowLayout.LEFT));
@@ -142,10 +437,10 @@ public class BurpExtender implements IBurpExtender, IMessageEditorTabFactory {
             checkBoxRaw.setToolTipText("Trim quotes and render special chars for strings output");
             checkBoxRaw.addItemListener(helperListener);
             checkBoxSort = new JCheckBox("Sort");
-            checkBoxSort.setToolTipText("[ <filters> ] | sort | .[]");
+            checkBoxSort.setToolTipText("[ <filters> ] | sort | .[], over the results of all NDJSON records together");
             checkBoxSort.addItemListener(helperListener);
             checkBoxUnique = new JCheckBox("Unique");
-            checkBoxUnique.setToolTipText("[ <filters> ] | unique | .[]");
+            checkBoxUnique.setToolTipText("[ <filters> ] | unique | .[], over the results of all NDJSON records together");
             checkBoxUnique.addItemListener(helperListener);
             checkBoxFilterOutNulls = new JCheckBox("Filter out nulls");
             checkBoxFilterOutNulls.setToolTipText("<filters> | select(. != null)");
@@ -153,6 +448,29 @@ public class BurpExtender implements IBurpExtender, IMessageEditorTabFactory {
             checkBoxKeys = new JCheckBox("Keys");
             checkBoxKeys.setToolTipText("<filters> | keys");
             checkBoxKeys.addItemListener(helperListener);
+            checkBoxLive = new JCheckBox("Live");
+            checkBoxLive.setToolTipText("Apply filters as you type");
+            checkBoxLive.addItemListener(e -> {
+                if (checkBoxLive.isSelected())
+                    applyFilters(true);
+            });
+            checkBoxPaged = new JCheckBox("Paged");
+            checkBoxPaged.setToolTipText("Render only the displayed page of results, for very large outputs");
+            checkBoxPaged.addItemListener(helperListener);
+
+            // Structural diff against a message pinned from any JQ tab, both filtered alike
+            JButton buttonPin = new JButton("Pin");
+            buttonPin.setToolTipText("Pin this message as the base of Diff, in any JQ tab");
+            buttonPin.addActionListener(e -> {
+                if (inputs == null)
+                    return;
+                pinned = inputs;
+                if (checkBoxDiff.isSelected())
+                    applyFilters();
+            });
+            checkBoxDiff = new JCheckBox("Diff");
+            checkBoxDiff.setToolTipText("Changes from the pinned message to this one, after filters and helpers on both");
+            checkBoxDiff.addItemListener(helperListener);
 
             // Assemble filters helpers
             filtersHelpers.add(checkBoxPretty);
@@ -161,18 +479,64 @@ public class BurpExtender implements IBurpExtender, IMessageEditorTabFactory {
             filtersHelpers.add(checkBoxUnique);
             filtersHelpers.add(checkBoxFilterOutNulls);
             filtersHelpers.add(checkBoxKeys);
+            filtersHelpers.add(checkBoxLive);
+            filtersHelpers.add(checkBoxPaged);
+            filtersHelpers.add(buttonPin);
+            filtersHelpers.add(checkBoxDiff);
+
+            // Editable messages can be rewritten with the filter output
+            if (editable) {
+                checkBoxRewrite = new JCheckBox("Rewrite");
+                checkBoxRewrite.setToolTipText("Replace body with the filter output, e.g. .user.role = \"admin\"");
+                filtersHelpers.add(checkBoxRewrite);
+            }
+
+            // Shown when output was truncated
+            buttonShowMore = new JButton("Show more");
+            buttonShowMore.setToolTipText("Double the output size limit");
+            buttonShowMore.setVisible(false);
+            buttonShowMore.addActionListener(e -> {
+                outputLimit *= 2;
+                applyFilters();
+            });
+            filtersHelpers.add(buttonShowMore);
+
+            // Timings of the last run
+            JPanel status = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+            labelMetrics = new JLabel(" ");
+            labelMetrics.setFont(labelMetrics.getFont().deriveFont(11f));
+            status.add(labelMetrics);
 
             // Assemble filters container
             filters.add(filtersBar);
             filters.add(filtersHelpers);
+            filters.add(status);
 
             // Output area
             outputArea = callbacks.createTextEditor();
             outputArea.setEditable(false);
 
+            // Paged output area, pages bounded like the whole output otherwise
+            resultsView = new ResultsView(callbacks, executor, outputPageSize, outputMaxBytes);
+            outputs.add(outputArea.getComponent(), EDITOR_CARD);
+            outputs.add(resultsView.getUiComponent(), PAGED_CARD);
+
             // Assemble main container
             container.add(filters, BorderLayout.NORTH);
-            container.add(outputArea.getComponent(), BorderLayout.CENTER);
+            container.add(outputs, BorderLayout.CENTER);
+
+            // Interrupt evaluations running past their time budget
+            watchdog = new Timer(evaluationMaxMillis, e -> {
+                if (evaluation != null)
+                    evaluation.cancel(true);
+            });
+            watchdog.setRepeats(false);
+
+            // Defer parsing until the tab is actually displayed
+            container.addHierarchyListener(e -> {
+                if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0 && container.isShowing())
+                    loadMessage();
+            });
         }
 
         @Override
@@ -185,21 +549,16 @@ public class BurpExtender implements IBurpExtender, IMessageEditorTabFactory {
             return container;
         }
 
-        // Enable for JSON only
+        // Enable for JSON only, sniffed from the bytes and kept for setMessage
         @Override
         public boolean isEnabled(byte[] content, boolean isRequest) {
+            return sniff(content).isJson();
+        }
 
-            IRequestInfo requestInfo;
-            IResponseInfo responseInfo;
-
-            if (isRequest) {
-                requestInfo = helpers.analyzeRequest(content);
-                return requestInfo.getContentType() == IRequestInfo.CONTENT_TYPE_JSON;
-
-            } else {
-                responseInfo = helpers.analyzeResponse(content);
-                return responseInfo.getStatedMimeType().equals("JSON") || responseInfo.getInferredMimeType().equals("JSON");
-            }
+        private ContentSniffer sniff(byte[] content) {
+            if (lastSniffed == null || !lastSniffed.isOf(content))
+                lastSniffed = ContentSniffer.sniff(content);
+            return lastSniffed;
         }
 
         @Override
@@ -207,134 +566,386 @@ public class BurpExtender implements IBurpExtender, IMessageEditorTabFactory {
 
             // Clear our display and reset input
             if (content == null) {
-                outputArea.setText(new byte[0]);
-                input = null;
+                cancelEvaluation();
+                showOutput(new byte[0]);
+                inputs = null;
+                results = null;
+                rewritten = null;
+                message = null;
+                loaded = true;
                 return;
             }
 
-            // Get JSON from request/response body
-            int bodyOffset = 0;
-            if (isRequest) {
-                IRequestInfo requestInfo = helpers.analyzeRequest(content);
-                bodyOffset = requestInfo.getBodyOffset();
+            // Same message again, already parsed or still pending
+            if (content == message)
+                return;
+
+            cancelEvaluation();
+            results = null;
+            rewritten = null;
+            message = content;
+            this.isRequest = isRequest;
+            loaded = false;
+            if (container.isShowing())
+                loadMessage();
+        }
+
+        // Parse pending message, enumerate its keys and apply filters
+        private void loadMessage() {
 
-            } else {
-                IResponseInfo responseInfo = helpers.analyzeResponse(content);
-                bodyOffset = responseInfo.getBodyOffset();
+            if (loaded)
+                return;
+            loaded = true;
+            outputLimit = outputMaxBytes;
+            byte[] content = message;
+
+            // Get JSON from request/response body, within its callback for JSONP
+            ContentSniffer sniffed = sniff(content);
+            int jsonStart = sniffed.jsonStart;
+            int jsonEnd = sniffed.jsonEnd;
+
+            // Parsing timings are reported with the first evaluation
+            Metrics.Run run = new Metrics.Run();
+            run.isRequest = isRequest;
+            run.bytes = jsonEnd - jsonStart;
+            load = run;
+            loadReported = false;
+
+            // Stream large bodies instead of building their whole tree
+            Charset charset = sniffed.charset;
+            if (jsonEnd - jsonStart >= streamingMinBytes) {
+                inputs = null;
+                stream = new Body(content, jsonStart, jsonEnd, charset);
+                jqComplete.clearKeywords();
+                applyFilters();
+                return;
             }
+            stream = null;
+
+            // Identical bodies are parsed and enumerated only once
+            String key = TreeCache.key(content, jsonStart, jsonEnd - jsonStart, String.valueOf(charset));
+            TreeCache.Entry entry = treeCache.get(key, content, jsonStart, jsonEnd - jsonStart);
 
             // Save JSON input
-            try {
-                input = mapper.readTree(new String(Arrays.copyOfRange(content, bodyOffset, content.length)));
-            } catch (JsonProcessingException e) {
-                filtersBar.setBackground(colorError);
-                outputArea.setText(e.getMessage().getBytes());
-                return;
+            run.cached = entry != null;
+            if (entry == null) {
+                long start = System.nanoTime();
+                try {
+                    List<JsonNode> records = readRecords(content, jsonStart, jsonEnd, charset);
+                    run.set(Metrics.Phase.PARSE, System.nanoTime() - start);
+                    start = System.nanoTime();
+                    Schema schema = new Schema(records, keysMaxDepth, keysMaxNodes);
+                    run.set(Metrics.Phase.KEYS, System.nanoTime() - start);
+                    entry = new TreeCache.Entry(records, schema, content, jsonStart, jsonEnd - jsonStart);
+                    treeCache.put(key, entry);
+                } catch (IOException e) {
+                    run.set(Metrics.Phase.PARSE, System.nanoTime() - start);
+                    report(run);
+                    cancelEvaluation();
+                    inputs = null;
+                    filtersBar.setBackground(colorError);
+                    showOutput(e.getMessage().getBytes());
+                    return;
+                }
             }
+            inputs = entry.inputs;
+            run.records = entry.inputs.size();
+            run.nodes = entry.schema.getNodes();
 
             // Enumerate keys for completion
-            jqComplete.setKeywords(getKeys(input));
+            jqComplete.setSchema(entry.schema);
 
             // Draw
             applyFilters();
         }
 
-        // Iterate JsonNode keys
-        private HashSet<String> getKeys(JsonNode node) {
+        // Apply filters from filterBar and filtersHelpers to JsonNode inputs and draw output to outputArea
+        public void applyFilters() {
+            applyFilters(false);
+        }
 
-            HashSet<String> keys = new HashSet<String>();
+        // In live mode, filters that do not compile yet are skipped instead of reported
+        private void applyFilters(boolean live) {
 
-            // Arrays
-            if (node.isArray()) {
-                Iterator<JsonNode> elements = node.iterator();
-                while (elements.hasNext()) {
-                    getKeys(elements.next()).forEach(key -> {
-                        keys.add(key);                  
-                    });
-                }
-            // Other objects
-            } else {
-                Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
-
-                while (fields.hasNext()) {
-                    Map.Entry<String, JsonNode> entry = fields.next();
-                    keys.add(entry.getKey());
-                    getKeys(entry.getValue()).forEach(key -> {
-                        keys.add(key);
-                    });
+            String filters = filtersBar.getText().trim();
+            if (filters.equals(""))
+                filters = ".";
+
+            // Snapshot UI state for the evaluation thread
+            final String query = filters;
+            final List<JsonNode> json = inputs;
+            final Body body = stream;
+            final FilterHelpers filterHelpers = new FilterHelpers(checkBoxKeys.isSelected(), checkBoxFilterOutNulls.isSelected(),
+                checkBoxSort.isSelected(), checkBoxUnique.isSelected());
+            final boolean raw = checkBoxRaw.isSelected();
+            final boolean pretty = checkBoxPretty.isSelected();
+            final boolean paged = checkBoxPaged.isSelected();
+            final List<JsonNode> base = checkBoxDiff.isSelected() ? pinned : null;
+            final long limit = outputLimit;
+            final Results memoized = results != null && results.matches(query, json, body) ? results : null;
+            final Metrics.Run run = load == null ? new Metrics.Run() : loadReported ? load.next() : load;
+            run.filters = query;
+            if (live && memoized == null) {
+                long start = System.nanoTime();
+                try {
+                    queryCache.compile(query, jqVersion);
+                } catch (JsonQueryException e) {
+                    return;
                 }
+                run.set(Metrics.Phase.COMPILE, System.nanoTime() - start);
+            }
+            final long current = cancelEvaluation();
+            if (json == null && body == null)
+                return;
+            if (checkBoxDiff.isSelected() && base == null) {
+                filtersBar.setBackground(colorWarning);
+                showOutput(NOTHING_PINNED.getBytes());
+                return;
             }
 
-            return keys;
+            filtersBar.setBackground(colorRunning);
+            loadReported = true;
+            evaluation = executor.submit(() -> evaluate(query, json, body, filterHelpers, memoized, base, raw, pretty, paged, limit, current, run));
+            if (evaluationMaxMillis > 0)
+                watchdog.restart();
         }
 
-        // Apply filters from filterBar and filtersHelpers to JsonNode input and draw output to outputArea
-        public void applyFilters() {
+        // Cancel the evaluation in flight, if any, and start a new generation
+        private long cancelEvaluation() {
+            watchdog.stop();
+            if (evaluation != null)
+                evaluation.cancel(true);
+            return generation.incrementAndGet();
+        }
 
-            // Helpers
-            String filters = filtersBar.getText().trim();
-            if (filters.equals(""))
-                filters = ".";
-            if (checkBoxKeys.isSelected())
-                filters += "|keys";
-            if (checkBoxFilterOutNulls.isSelected())
-                filters += "|select(.!=null)";
-            if (checkBoxSort.isSelected() && !checkBoxUnique.isSelected())
-                filters = "[" + filters + "]|sort|.[]";
-            if (checkBoxUnique.isSelected())
-                filters = "[" + filters + "]|unique|.[]";
+        // Evaluate filters off the event thread and publish the output if still current
+        // Each input is filtered separately, like jq does for NDJSON records
+        // Without inputs, path filters are streamed from body and others fall back to a full parse
+        // Time and results budgets stop runaway filters, keeping the results output so far
+        // Complete results over parsed inputs are memoized up to MEMO_MAX_RESULTS, helpers and rendering toggles then skip the evaluation
+        // Paged results are handed over to the results view, which renders them page by page
+        // With a base, results are replaced by the changes from the results of the same filters and helpers over base
+        private void evaluate(String filters, List<JsonNode> inputs, Body body, FilterHelpers filterHelpers, Results memoized,
+                List<JsonNode> base, boolean raw, boolean pretty, boolean paged, long limit, long current, Metrics.Run run) {
 
             try {
-                // JQ request and build output with formatting
-                StringBuilder output = new StringBuilder();
-                JsonQuery jq = JsonQuery.compile(filters, jqVersion);
-                AtomicBoolean isAllNulls = new AtomicBoolean(true);
-                jq.apply(scope, input, (out) -> {
-                    if (!out.isNull())
-                        isAllNulls.set(false);
-                    if (out.isTextual() && checkBoxRaw.isSelected())
-                        output.append(out.asText());
-                    else if (checkBoxPretty.isSelected())
-                        try {
-                            output.append(mapper.writeValueAsString(out));
-                        } catch (JsonProcessingException e) {
-                            output.append(out.toPrettyString());
+                // JQ request and stream output with formatting
+                Renderer output = new Renderer(raw, pretty, limit);
+                AtomicReference<JsonNode> first = new AtomicReference<JsonNode>();
+                long[] renderNanos = new long[1];
+                Output render = (out) -> {
+                    // Stop as soon as a newer evaluation superseded this one, or the watchdog interrupted it
+                    if (generation.get() != current || Thread.currentThread().isInterrupted())
+                        throw new JsonQueryException(CANCELLED);
+                    first.compareAndSet(null, out);
+                    long rendering = System.nanoTime();
+                    try {
+                        output.write(out);
+                    } catch (IOException e) {
+                        throw new JsonQueryException(e);
+                    }
+                    renderNanos[0] += System.nanoTime() - rendering;
+                };
+
+                // Results are collected when ordered, paged or diffed, otherwise streamed to the output
+                // Streamed results over parsed inputs are kept aside for the memo, until there are too many of them
+                String stopped = null;
+                List<JsonNode> results = memoized != null ? memoized.results : null;
+                List<JsonNode> memoizable = null;
+                String resultsExceeded = String.format(RESULTS_EXCEEDED, outputMaxResults);
+                if (memoized == null) {
+                    List<JsonNode> collected = filterHelpers.isOrdering() || paged || base != null ? new ArrayList<JsonNode>() : null;
+                    List<JsonNode> kept = collected == null && inputs != null ? new ArrayList<JsonNode>() : null;
+                    long start = System.nanoTime();
+                    JsonQuery jq = queryCache.compile(filters, jqVersion);
+                    run.set(Metrics.Phase.COMPILE, Math.max(0, run.get(Metrics.Phase.COMPILE)) + System.nanoTime() - start);
+                    long[] emitted = new long[1];
+                    Output emit = (out) -> {
+                        if (generation.get() != current || Thread.currentThread().isInterrupted())
+                            throw new JsonQueryException(CANCELLED);
+                        if (outputMaxResults > 0 && emitted[0]++ >= outputMaxResults)
+                            throw new JsonQueryException(resultsExceeded);
+                        if (collected != null) {
+                            collected.add(out);
+                            return;
                         }
-                    else
-                        output.append(out.toString());
-                    output.append("\n");
-                });
-
-                // Remove extra new line
-                if (output.length() > 0)
-                    output.deleteCharAt(output.length() -1);
+                        if (kept != null && kept.size() <= MEMO_MAX_RESULTS)
+                            kept.add(out);
+                        filterHelpers.apply(out, render);
+                    };
+
+                    start = System.nanoTime();
+                    try {
+                        Scope scope = builtins.get();
+                        if (inputs != null) {
+                            ParallelQuery.apply(jq, scope, inputs, outputMaxResults, resultsExceeded, emit);
+                        } else {
+                            StreamingQuery streamingQuery = StreamingQuery.compile(filters, jqVersion, queryCache);
+                            try (JsonParser parser = body.createParser()) {
+                                if (streamingQuery != null) {
+                                    streamingQuery.apply(scope, parser, emit);
+                                } else {
+                                    MappingIterator<JsonNode> records = mapper.readerFor(JsonNode.class).readValues(parser);
+                                    while (records.hasNextValue())
+                                        jq.apply(scope, records.nextValue(), emit);
+                                }
+                            }
+                        }
+                    } catch (JsonQueryException e) {
+                        if (!resultsExceeded.equals(e.getMessage()) && !Thread.currentThread().isInterrupted())
+                            throw e;
+                        stopped = resultsExceeded;
+                    }
+
+                    // Interrupted by the watchdog, even if a try in filters caught it
+                    if (Thread.interrupted())
+                        stopped = String.format(TIME_EXCEEDED, evaluationMaxMillis);
+                    run.set(Metrics.Phase.EVALUATE, System.nanoTime() - start - renderNanos[0]);
+                    results = collected;
+                    memoizable = collected != null ? collected : kept;
+                }
+                output.setStopped(stopped);
+                Results memo = inputs != null && stopped == null && memoizable != null && memoizable.size() <= MEMO_MAX_RESULTS
+                    ? new Results(filters, inputs, body, memoizable) : null;
+
+                // Helpers over collected results, natively instead of re-running filters
+                if (results != null) {
+                    long start = System.nanoTime();
+                    List<JsonNode> helped = filterHelpers.apply(results);
+                    run.set(Metrics.Phase.EVALUATE, Math.max(0, run.get(Metrics.Phase.EVALUATE)) + System.nanoTime() - start);
+
+                    // Changes are never rewritten into the body
+                    // Partial results on either side would show made up changes, so the budget message is shown instead
+                    if (base != null) {
+                        start = System.nanoTime();
+                        List<JsonNode> baseResults = null;
+                        if (stopped == null) {
+                            try {
+                                baseResults = collect(filters, base, current);
+                            } catch (JsonQueryException e) {
+                                if (!resultsExceeded.equals(e.getMessage()) && !Thread.currentThread().isInterrupted())
+                                    throw e;
+                                stopped = resultsExceeded;
+                            }
+                            if (Thread.interrupted())
+                                stopped = String.format(TIME_EXCEEDED, evaluationMaxMillis);
+                        }
+                        if (stopped != null) {
+                            run.results = helped.size();
+                            publish(current, colorWarning, String.format(DIFF_STOPPED, stopped).getBytes(), false, null, null, null, run);
+                            return;
+                        }
+                        helped = JsonDiff.diff(filterHelpers.apply(baseResults), helped);
+                        run.set(Metrics.Phase.DIFF, System.nanoTime() - start);
+                    }
+
+                    // Only the first page is rendered, when displayed
+                    if (paged) {
+                        boolean single = helped.size() == 1 && stopped == null && base == null;
+                        boolean allNulls = helped.stream().allMatch(JsonNode::isNull);
+                        run.results = helped.size();
+                        publish(current, stopped != null || allNulls ? colorWarning : colorOK, null, false, single ? helped.get(0) : null,
+                            memo, new ResultsView.Content(helped, raw, pretty, stopped), run);
+                        return;
+                    }
+                    for (JsonNode result : helped)
+                        render.emit(result);
+                }
 
                 // Draw
-                if (isAllNulls.get())
-                    filtersBar.setBackground(colorWarning);
+                // Only a single result can replace the body
+                boolean single = output.getCount() == 1 && output.getTruncated() == 0 && stopped == null && base == null;
+                long start = System.nanoTime();
+                byte[] bytes = output.toByteArray();
+                run.set(Metrics.Phase.RENDER, renderNanos[0] + System.nanoTime() - start);
+                run.results = output.getCount() + output.getTruncated();
+                publish(current, stopped != null || output.isAllNulls() ? colorWarning : colorOK, bytes,
+                    output.getTruncated() > 0, single ? first.get() : null, memo, null, run);
+
+            } catch (IOException e) {
+                publish(current, colorError, e.getMessage().getBytes(), false, null, null, null, run);
+
+            // Runaway recursion or allocation, whatever it built is released with this thread stack
+            } catch (StackOverflowError | OutOfMemoryError e) {
+                publish(current, colorError, ("Evaluation failed: " + e).getBytes(), false, null, null, null, run);
+            }
+        }
+
+        // Results of filters over inputs, within the results budget
+        private List<JsonNode> collect(String filters, List<JsonNode> inputs, long current) throws IOException {
+            JsonQuery jq = queryCache.compile(filters, jqVersion);
+            String resultsExceeded = String.format(RESULTS_EXCEEDED, outputMaxResults);
+            List<JsonNode> collected = new ArrayList<JsonNode>();
+            ParallelQuery.apply(jq, builtins.get(), inputs, outputMaxResults, resultsExceeded, (out) -> {
+                if (generation.get() != current || Thread.currentThread().isInterrupted())
+                    throw new JsonQueryException(CANCELLED);
+                if (outputMaxResults > 0 && collected.size() >= outputMaxResults)
+                    throw new JsonQueryException(resultsExceeded);
+                collected.add(out);
+            });
+            return collected;
+        }
+
+        // Draw output, or paged results, from the event thread unless a newer evaluation was started
+        private void publish(long current, Color color, byte[] output, boolean truncated, JsonNode result, Results memo,
+                ResultsView.Content paged, Metrics.Run run) {
+            SwingUtilities.invokeLater(() -> {
+                if (generation.get() != current)
+                    return;
+                if (memo != null)
+                    results = memo;
+                rewritten = result;
+                filtersBar.setBackground(color);
+                buttonShowMore.setVisible(truncated);
+                long start = System.nanoTime();
+                if (paged != null)
+                    showPaged(paged);
                 else
-                    filtersBar.setBackground(colorOK);
-                outputArea.setText(output.toString().getBytes());
+                    showOutput(output);
+                run.set(Metrics.Phase.DISPLAY, System.nanoTime() - start);
+                report(run);
+            });
+        }
 
-            } catch (JsonProcessingException e) {
-                filtersBar.setBackground(colorError);
-                outputArea.setText(e.getMessage().getBytes());
-            }
+        private void showOutput(byte[] output) {
+            outputArea.setText(output);
+            resultsView.clear();
+            pagedShown = false;
+            ((CardLayout) outputs.getLayout()).show(outputs, EDITOR_CARD);
+        }
+
+        private void showPaged(ResultsView.Content paged) {
+            resultsView.setContent(paged);
+            pagedShown = true;
+            ((CardLayout) outputs.getLayout()).show(outputs, PAGED_CARD);
+        }
+
+        // Record run and show it in the status line
+        private void report(Metrics.Run run) {
+            metrics.add(run);
+            labelMetrics.setText(run.toString());
         }
 
         @Override
         public byte[] getMessage() {
-            return input.toString().getBytes();
+            if (!isModified())
+                return message;
+            try {
+                ContentSniffer sniffed = sniff(message);
+                return helpers.buildHttpMessage(sniffed.getHeaders(), sniffed.wrap(writeRecords(Collections.singletonList(rewritten), sniffed.charset)));
+            } catch (IOException e) {
+                return message;
+            }
         }
 
         @Override
         public boolean isModified() {
-            return false;
+            return checkBoxRewrite != null && checkBoxRewrite.isSelected() && rewritten != null;
         }
 
         @Override
         public byte[] getSelectedData() {
-            return outputArea.getSelectedText();
+            return pagedShown ? resultsView.getSelectedText() : outputArea.getSelectedText();
         }
     }
 
@@ -0,0 +1,229 @@
+package burp;
+
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+// Byte level analysis of an HTTP message: end of headers, Content-Type, and where a JSON body starts and ends
+// Much cheaper than analyzeRequest or analyzeResponse, which build every header, so that it can run on each message shown
+// JSON is recognized by its first token whatever the Content-Type, as JSONP when wrapped in a callback,
+// and as a scalar when the Content-Type is JSON, e.g. application/json, application/vnd.api+json or application/x-ndjson
+public class ContentSniffer {
+
+    private static final byte[] CONTENT_TYPE = "content-type:".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] content;
+    private final boolean isJson;
+    // Offset of the body, content length when there is no end of headers
+    final int bodyOffset;
+    // Range of the JSON value, the whole body unless it is JSONP
+    final int jsonStart;
+    final int jsonEnd;
+    // Lower case media type without parameters, null without Content-Type
+    final String mimeType;
+    // Charset parameter of Content-Type, null if absent or unsupported
+    final Charset charset;
+
+    private ContentSniffer(byte[] content, int bodyOffset, String mimeType, Charset charset) {
+
+        this.content = content;
+        this.bodyOffset = bodyOffset;
+        this.mimeType = mimeType;
+        this.charset = charset;
+
+        // First token, skipping blanks, byte order marks and the zero bytes of UTF-16 and UTF-32
+        int first = bodyOffset;
+        while (first < content.length && isSkipped(content[first]))
+            first++;
+        byte b = first < content.length ? content[first] : 0;
+
+        int jsonpStart = b == '/' || isIdentifier(b, true) ? getJsonpStart(first) : -1;
+        int jsonpEnd = jsonpStart < 0 ? -1 : getJsonpEnd(jsonpStart);
+        if (jsonpEnd > 0 && isJsonpType(mimeType)) {
+            isJson = true;
+            jsonStart = jsonpStart;
+            jsonEnd = jsonpEnd;
+        } else {
+            isJson = b == '{' || b == '[' || isJsonType(mimeType) && isScalar(first);
+            jsonStart = bodyOffset;
+            jsonEnd = content.length;
+        }
+    }
+
+    public static ContentSniffer sniff(byte[] content) {
+
+        // Header lines until the first blank one, tolerating bare LF line endings
+        int bodyOffset = content.length;
+        int contentType = -1;
+        int contentTypeEnd = -1;
+        int lineStart = 0;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] != '\n')
+                continue;
+            int lineEnd = i > lineStart && content[i - 1] == '\r' ? i - 1 : i;
+            if (lineEnd == lineStart && lineStart > 0) {
+                bodyOffset = i + 1;
+                break;
+            }
+            if (contentType < 0 && startsWithIgnoreCase(content, lineStart, lineEnd, CONTENT_TYPE)) {
+                contentType = lineStart + CONTENT_TYPE.length;
+                contentTypeEnd = lineEnd;
+            }
+            lineStart = i + 1;
+        }
+
+        if (contentType < 0)
+            return new ContentSniffer(content, bodyOffset, null, null);
+        String value = new String(content, contentType, contentTypeEnd - contentType, StandardCharsets.ISO_8859_1);
+        int semicolon = value.indexOf(';');
+        String mimeType = (semicolon < 0 ? value : value.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+        return new ContentSniffer(content, bodyOffset, mimeType, getCharset(value));
+    }
+
+    // Whether content is the very array sniffed, like editors compare messages
+    public boolean isOf(byte[] content) {
+        return this.content == content;
+    }
+
+    public boolean isJson() {
+        return isJson;
+    }
+
+    public boolean isJsonp() {
+        return jsonStart > bodyOffset;
+    }
+
+    // Header lines as Burp lists them, first line included, decoded only when needed
+    public List<String> getHeaders() {
+        List<String> headers = new ArrayList<String>();
+        int lineStart = 0;
+        for (int i = 0; i < bodyOffset; i++) {
+            if (content[i] != '\n')
+                continue;
+            int lineEnd = i > lineStart && content[i - 1] == '\r' ? i - 1 : i;
+            if (lineEnd > lineStart)
+                headers.add(new String(content, lineStart, lineEnd - lineStart, StandardCharsets.ISO_8859_1));
+            lineStart = i + 1;
+        }
+        if (bodyOffset == content.length && lineStart < content.length)
+            headers.add(new String(content, lineStart, content.length - lineStart, StandardCharsets.ISO_8859_1));
+        return headers;
+    }
+
+    // Body with json in place of the sniffed value, keeping the callback of JSONP
+    public byte[] wrap(byte[] json) {
+        if (!isJsonp())
+            return json;
+        byte[] body = new byte[jsonStart - bodyOffset + json.length + content.length - jsonEnd];
+        System.arraycopy(content, bodyOffset, body, 0, jsonStart - bodyOffset);
+        System.arraycopy(json, 0, body, jsonStart - bodyOffset, json.length);
+        System.arraycopy(content, jsonEnd, body, jsonStart - bodyOffset + json.length, content.length - jsonEnd);
+        return body;
+    }
+
+    // Charset parameter of a Content-Type value
+    static Charset getCharset(String contentType) {
+        for (String parameter : contentType.split(";")) {
+            int equals = parameter.indexOf('=');
+            if (equals < 0 || !parameter.substring(0, equals).trim().equalsIgnoreCase("charset"))
+                continue;
+            String name = parameter.substring(equals + 1).trim().replace("\"", "");
+            try {
+                return Charset.forName(name);
+            } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // application/json, text/json, application/x-json, vendor types like application/problem+json, and JSON lines
+    private static boolean isJsonType(String mimeType) {
+        return mimeType != null && (mimeType.endsWith("/json") || mimeType.endsWith("+json") || mimeType.endsWith("/x-json")
+            || mimeType.endsWith("ndjson") || mimeType.endsWith("jsonl") || mimeType.endsWith("json-seq") || mimeType.endsWith("jsonlines"));
+    }
+
+    // Callbacks are served as scripts, JSON or plain text, if typed at all
+    private static boolean isJsonpType(String mimeType) {
+        return mimeType == null || isJsonType(mimeType) || mimeType.endsWith("javascript") || mimeType.endsWith("ecmascript")
+            || mimeType.equals("text/plain");
+    }
+
+    // Offset after the parenthesis of a callback like /**/ jQuery123_456({...}), -1 if none
+    private int getJsonpStart(int i) {
+
+        if (startsWith(content, i, "/**/")) {
+            i += 4;
+            while (i < content.length && isSkipped(content[i]))
+                i++;
+        }
+        if (i >= content.length || !isIdentifier(content[i], true))
+            return -1;
+        while (i < content.length && (isIdentifier(content[i], false) || content[i] == '.'))
+            i++;
+        while (i < content.length && isSkipped(content[i]))
+            i++;
+        if (i >= content.length || content[i] != '(')
+            return -1;
+        int start = ++i;
+
+        // Callback argument must start like JSON
+        while (i < content.length && isSkipped(content[i]))
+            i++;
+        if (i >= content.length)
+            return -1;
+        return content[i] == '{' || content[i] == '[' || isScalar(i) ? start : -1;
+    }
+
+    // String, number or literal starting at i
+    private boolean isScalar(int i) {
+        if (i >= content.length)
+            return false;
+        byte b = content[i];
+        return b == '"' || b == '-' || b >= '0' && b <= '9' || startsWith(content, i, "true") || startsWith(content, i, "false")
+            || startsWith(content, i, "null");
+    }
+
+    // Offset of the closing parenthesis, before an optional semicolon, -1 if none
+    private int getJsonpEnd(int start) {
+        int i = content.length - 1;
+        while (i >= start && (isSkipped(content[i]) || content[i] == ';'))
+            i--;
+        return i >= start && content[i] == ')' ? i : -1;
+    }
+
+    private static boolean isSkipped(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == 0 || b == (byte) 0xef || b == (byte) 0xbb || b == (byte) 0xbf
+            || b == (byte) 0xfe || b == (byte) 0xff;
+    }
+
+    private static boolean isIdentifier(byte b, boolean first) {
+        return b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b == '_' || b == '$' || !first && b >= '0' && b <= '9';
+    }
+
+    private static boolean startsWith(byte[] content, int offset, String prefix) {
+        if (offset + prefix.length() > content.length)
+            return false;
+        for (int i = 0; i < prefix.length(); i++)
+            if (content[offset + i] != prefix.charAt(i))
+                return false;
+        return true;
+    }
+
+    // ASCII case insensitive, prefix given in lower case
+    private static boolean startsWithIgnoreCase(byte[] content, int offset, int end, byte[] prefix) {
+        if (end - offset < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            byte b = content[offset + i];
+            if ((b >= 'A' && b <= 'Z' ? b + 32 : b) != prefix[i])
+                return false;
+        }
+        return true;
+    }
+}
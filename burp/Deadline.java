@@ -0,0 +1,58 @@
+package burp;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+// Time budget of an evaluation on a thread we do not own, e.g. Proxy, Scanner or Intruder threads
+// Interrupts the thread once time is up, which interruptible builtins turn into a failed evaluation
+// Interrupts are sent and cleared under the same lock, so none reaches whatever the thread runs after stop
+public class Deadline implements Runnable {
+
+    private static final ScheduledThreadPoolExecutor watchdog = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "JQ watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Most deadlines are stopped long before they expire, and should not pile up until then
+    static {
+        watchdog.setRemoveOnCancelPolicy(true);
+    }
+
+    private final Thread thread = Thread.currentThread();
+    private final ScheduledFuture<?> scheduled;
+    private boolean stopped = false;
+    private boolean expired = false;
+
+    // Start a deadline for the current thread, none with 0 millis
+    public Deadline(long millis) {
+        scheduled = millis > 0 ? watchdog.schedule(this, millis, TimeUnit.MILLISECONDS) : null;
+    }
+
+    @Override
+    public synchronized void run() {
+        if (stopped)
+            return;
+        expired = true;
+        thread.interrupt();
+    }
+
+    // Stop the deadline from the thread that started it, clearing its interrupt if any
+    // Returns whether time was up, even if filters caught the interruption
+    public boolean stop() {
+        synchronized (this) {
+            stopped = true;
+            if (expired)
+                Thread.interrupted();
+        }
+        if (scheduled != null)
+            scheduled.cancel(false);
+        return expired;
+    }
+
+    public static void shutdown() {
+        watchdog.shutdownNow();
+    }
+}
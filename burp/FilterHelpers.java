@@ -0,0 +1,89 @@
+package burp;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import net.thisptr.jackson.jq.exception.JsonQueryException;
+import net.thisptr.jackson.jq.internal.misc.JsonNodeComparator;
+import net.thisptr.jackson.jq.Output;
+
+
+// Editor tab helpers applied to the results of filters, instead of wrapping filters with more JQ
+// Same semantics as <filters> | keys | select(. != null), then [ ... ] | sort or unique | .[]
+// Sort and unique order the results of all inputs together, like jq -n '[inputs | <filters>] | sort | .[]' for NDJSON
+public class FilterHelpers {
+
+    private final boolean keys;
+    private final boolean filterOutNulls;
+    private final boolean sort;
+    private final boolean unique;
+
+    public FilterHelpers(boolean keys, boolean filterOutNulls, boolean sort, boolean unique) {
+        this.keys = keys;
+        this.filterOutNulls = filterOutNulls;
+        this.sort = sort;
+        this.unique = unique;
+    }
+
+    // Sort and unique need all results before emitting any
+    public boolean isOrdering() {
+        return sort || unique;
+    }
+
+    // Helpers applying to each result on its own
+    public void apply(JsonNode result, Output output) throws JsonQueryException {
+        if (keys)
+            result = keys(result);
+        if (filterOutNulls && result.isNull())
+            return;
+        output.emit(result);
+    }
+
+    public List<JsonNode> apply(List<JsonNode> results) throws JsonQueryException {
+
+        List<JsonNode> applied = results;
+        if (keys || filterOutNulls) {
+            applied = new ArrayList<JsonNode>(results.size());
+            for (JsonNode result : results)
+                apply(result, applied::add);
+        }
+        if (!isOrdering())
+            return applied;
+
+        List<JsonNode> sorted = new ArrayList<JsonNode>(applied);
+        sorted.sort(JsonNodeComparator.getInstance());
+        if (!unique)
+            return sorted;
+
+        List<JsonNode> distinct = new ArrayList<JsonNode>(sorted.size());
+        for (JsonNode result : sorted)
+            if (distinct.isEmpty() || JsonNodeComparator.getInstance().compare(distinct.get(distinct.size() - 1), result) != 0)
+                distinct.add(result);
+        return distinct;
+    }
+
+    // Sorted keys of an object, or indices of an array
+    private static JsonNode keys(JsonNode node) throws JsonQueryException {
+
+        ArrayNode array = JsonNodeFactory.instance.arrayNode();
+        if (node.isObject()) {
+            List<String> names = new ArrayList<String>(node.size());
+            Iterator<String> fields = node.fieldNames();
+            while (fields.hasNext())
+                names.add(fields.next());
+            names.sort(null);
+            for (String name : names)
+                array.add(name);
+        } else if (node.isArray()) {
+            for (int i = 0; i < node.size(); i++)
+                array.add(i);
+        } else {
+            throw new JsonQueryException("keys is not applicable to " + node.getNodeType() + "; expected one of [OBJECT, ARRAY]");
+        }
+        return array;
+    }
+}
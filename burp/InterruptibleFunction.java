@@ -0,0 +1,47 @@
+package burp;
+
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import net.thisptr.jackson.jq.BuiltinFunctionLoader;
+import net.thisptr.jackson.jq.exception.JsonQueryException;
+import net.thisptr.jackson.jq.Expression;
+import net.thisptr.jackson.jq.Function;
+import net.thisptr.jackson.jq.path.Path;
+import net.thisptr.jackson.jq.PathOutput;
+import net.thisptr.jackson.jq.Scope;
+import net.thisptr.jackson.jq.Version;
+
+
+// Builtin function stopping when its thread is interrupted, on each call and each value it emits
+// Runaway filters like [range(1e9)] or recursive definitions only loop through builtins, so they can be stopped
+public class InterruptibleFunction implements Function {
+
+    public static final String INTERRUPTED = "Evaluation interrupted";
+
+    private final Function function;
+
+    public InterruptibleFunction(Function function) {
+        this.function = function;
+    }
+
+    // Load builtin functions into scope, each of them interruptible
+    public static void loadFunctions(Version version, Scope scope) {
+        BuiltinFunctionLoader.getInstance().listFunctions(version, scope).forEach(
+            (key, function) -> scope.addFunction(key, new InterruptibleFunction(function)));
+    }
+
+    @Override
+    public void apply(Scope scope, List<Expression> args, JsonNode in, Path path, PathOutput output, Version version) throws JsonQueryException {
+        check();
+        function.apply(scope, args, in, path, (out, outPath) -> {
+            check();
+            output.emit(out, outPath);
+        }, version);
+    }
+
+    private static void check() throws JsonQueryException {
+        if (Thread.currentThread().isInterrupted())
+            throw new JsonQueryException(INTERRUPTED);
+    }
+}
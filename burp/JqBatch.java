@@ -0,0 +1,504 @@
+package burp;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.thisptr.jackson.jq.exception.JsonQueryException;
+import net.thisptr.jackson.jq.JsonQuery;
+import net.thisptr.jackson.jq.Scope;
+
+
+// Headless batch mode, e.g. java -jar burp-jq-all.jar -r '.data[].id' proxy-history.xml capture.har
+// Filters the JSON bodies of Burp saved items (XML) or HAR entries like the JQ tab does, helpers and rendering included,
+// reading files through memory mappings and streaming parsers, filtering messages in parallel and writing results in input order
+public class JqBatch {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final int MAP_SIZE = 1 << 28;
+    private static final int PENDING_PER_THREAD = 4;
+    private static final String TIME_EXCEEDED = "Evaluation stopped after %d ms (--timeout)";
+    private static final String USAGE = String.join("\n",
+        "Usage: java -jar burp-jq-all.jar [options] [--] <filters> <file>...",
+        "Apply JQ filters to the JSON bodies of Burp saved items (XML) or HAR files, printing results as NDJSON",
+        "",
+        "  -r, --raw-output     Print strings without quotes",
+        "  -c, --compact-output One result per line, the default",
+        "  --pretty             Indent results, which are then no longer one per line",
+        "  --requests           Filter request bodies instead of response bodies",
+        "  --keys               Keys of results, like the Keys helper of the JQ tab",
+        "  --filter-out-nulls   Skip null results",
+        "  --sort               Sort the results of each message",
+        "  --unique             Sort the results of each message and remove duplicates",
+        "  --with-item          Print each result as {\"item\":<index>,\"url\":<url>,\"result\":<result>}",
+        "  --threads <n>        Worker threads, one per core by default",
+        "  --timeout <ms>       Stop filters running longer on a message, 0 for no limit, " + BurpExtender.EVALUATION_MAX_MILLIS + " by default",
+        "  -o, --output <file>  Write results to file instead of standard output",
+        "  --                   End of options, anything after is filters or files",
+        "",
+        "Items whose messages cannot be decoded are skipped with a warning",
+        "Exit status is 1 if filters failed on a message, 2 on invalid arguments, filters or files");
+
+    private final JsonQuery jq;
+    private final Builtins builtins;
+    private final FilterHelpers filterHelpers;
+    private final boolean raw;
+    private final boolean pretty;
+    private final boolean requests;
+    private final boolean withItem;
+    private final long timeoutMillis;
+    private final ExecutorService workers;
+    private final int maxPending;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+    private final OutputStream out;
+    private long items = 0;
+    private long malformed = 0;
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong results = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    // Request and response of a saved item or HAR entry, as raw HTTP messages
+    private static class Item {
+
+        private final long index;
+        private final String url;
+        private final byte[] request;
+        private final byte[] response;
+
+        private Item(long index, String url, byte[] request, byte[] response) {
+            this.index = index;
+            this.url = url;
+            this.request = request;
+            this.response = response;
+        }
+    }
+
+    // Sequential stream over a file mapped region by region, so that files over 2 GB are read without copies from the kernel
+    private static class MappedInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final long size;
+        private long position = 0;
+        private ByteBuffer buffer;
+
+        private MappedInputStream(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            size = channel.size();
+        }
+
+        // Map next region once the current one is consumed, false at end of file
+        private boolean next() throws IOException {
+            if (buffer != null && buffer.hasRemaining())
+                return true;
+            if (position >= size)
+                return false;
+            long length = Math.min(MAP_SIZE, size - position);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            position += length;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return next() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (!next())
+                return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private JqBatch(JsonQuery jq, FilterHelpers filterHelpers, boolean raw, boolean pretty, boolean requests, boolean withItem,
+            long timeoutMillis, int threads, OutputStream out) {
+
+        this.jq = jq;
+        this.filterHelpers = filterHelpers;
+        this.raw = raw;
+        this.pretty = pretty;
+        this.requests = requests;
+        this.withItem = withItem;
+        this.timeoutMillis = timeoutMillis;
+        this.out = out;
+        maxPending = threads * PENDING_PER_THREAD;
+        workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "JQ batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Same builtins as the extension, loaded while the first file is opened
+        builtins = new Builtins(BurpExtender.jqVersion, workers);
+    }
+
+    public static void main(String[] args) {
+
+        boolean raw = false;
+        boolean pretty = false;
+        boolean requests = false;
+        boolean withItem = false;
+        boolean keys = false;
+        boolean filterOutNulls = false;
+        boolean sort = false;
+        boolean unique = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long timeoutMillis = BurpExtender.EVALUATION_MAX_MILLIS;
+        String output = null;
+        String filters = null;
+        List<Path> files = new ArrayList<Path>();
+
+        // Options may follow filters and files, like with jq, until --
+        try {
+            boolean options = true;
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (options && arg.equals("--")) {
+                    options = false;
+                    continue;
+                }
+                if (!options || !arg.startsWith("-") || arg.equals("-")) {
+                    if (filters == null)
+                        filters = arg.trim().isEmpty() ? "." : arg;
+                    else
+                        files.add(Paths.get(arg));
+                    continue;
+                }
+                switch (arg) {
+                    case "-r": case "--raw-output": raw = true; break;
+                    case "-c": case "--compact-output": pretty = false; break;
+                    case "--pretty": pretty = true; break;
+                    case "--requests": requests = true; break;
+                    case "--with-item": withItem = true; break;
+                    case "--keys": keys = true; break;
+                    case "--filter-out-nulls": filterOutNulls = true; break;
+                    case "--sort": sort = true; break;
+                    case "--unique": unique = true; break;
+                    case "--threads": threads = Math.max(1, Integer.parseInt(args[++i])); break;
+                    case "--timeout": timeoutMillis = Math.max(0, Long.parseLong(args[++i])); break;
+                    case "-o": case "--output": output = args[++i]; break;
+                    case "-h": case "--help": System.out.println(USAGE); System.exit(0); break;
+                    default: throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            if (filters == null || files.isEmpty())
+                throw new IllegalArgumentException("Missing " + (filters == null ? "filters" : "files"));
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println((e instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : e.getMessage()) + "\n\n" + USAGE);
+            System.exit(2);
+        }
+
+        JsonQuery jq;
+        try {
+            jq = JsonQuery.compile(filters, BurpExtender.jqVersion);
+        } catch (JsonQueryException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        int status;
+        try (OutputStream out = new BufferedOutputStream(output == null ? new FileOutputStream(FileDescriptor.out)
+                : Files.newOutputStream(Paths.get(output)), 1 << 16)) {
+            JqBatch batch = new JqBatch(jq, new FilterHelpers(keys, filterOutNulls, sort, unique), raw, pretty, requests, withItem,
+                timeoutMillis, threads, out);
+            status = batch.run(files);
+        } catch (NoSuchFileException e) {
+            System.err.println("No such file " + e.getMessage());
+            status = 2;
+        } catch (IOException | XMLStreamException e) {
+            System.err.println(e.getMessage());
+            status = 2;
+        } catch (InterruptedException e) {
+            status = 2;
+        }
+        System.exit(status);
+    }
+
+    // Filter every item of files in order, then report counts
+    private int run(List<Path> files) throws IOException, XMLStreamException, InterruptedException {
+
+        long start = System.nanoTime();
+        try {
+            for (Path file : files) {
+                try (PushbackInputStream in = new PushbackInputStream(new MappedInputStream(file))) {
+                    int first = in.read();
+                    while (first == ' ' || first == '\t' || first == '\r' || first == '\n' || first == 0xef || first == 0xbb || first == 0xbf)
+                        first = in.read();
+                    if (first >= 0)
+                        in.unread(first);
+                    if (first == '<')
+                        readItems(in);
+                    else if (first == '{')
+                        readHar(in);
+                    else
+                        throw new IOException(file + ": neither Burp saved items nor HAR");
+                }
+            }
+        } finally {
+            // Results of items read before a file failed are still written, in order
+            while (!pending.isEmpty())
+                write(pending.poll());
+            out.flush();
+            System.err.println(String.format("%d items, %d malformed, %d messages filtered, %d results, %d skipped, %d failed in %d ms",
+                items, malformed, messages.get(), results.get(), skipped.get(), failed.get(), (System.nanoTime() - start) / 1000000));
+        }
+        return failed.get() > 0 ? 1 : 0;
+    }
+
+    // Burp "Save items" XML, whose messages are base64 encoded unless saved otherwise
+    private void readItems(InputStream in) throws XMLStreamException, IOException, InterruptedException {
+
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+
+        String url = null;
+        byte[] request = null;
+        byte[] response = null;
+        String invalid = null;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("item")) {
+                if (invalid != null)
+                    skip(items++, url, invalid);
+                else
+                    submit(new Item(items++, url, request, response));
+                continue;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT)
+                continue;
+            switch (reader.getLocalName()) {
+                case "item":
+                    url = null;
+                    request = null;
+                    response = null;
+                    invalid = null;
+                    break;
+                case "url":
+                    url = reader.getElementText();
+                    break;
+                case "request":
+                case "response":
+                    boolean base64 = "true".equals(reader.getAttributeValue(null, "base64"));
+                    String text = reader.getElementText();
+                    byte[] content;
+                    try {
+                        content = base64 ? Base64.getMimeDecoder().decode(text) : text.getBytes(StandardCharsets.ISO_8859_1);
+                    } catch (IllegalArgumentException e) {
+                        invalid = "Invalid base64 " + reader.getLocalName() + ", " + e.getMessage();
+                        break;
+                    }
+                    if (reader.getLocalName().equals("request"))
+                        request = content;
+                    else
+                        response = content;
+                    break;
+                default:
+                    break;
+            }
+        }
+        reader.close();
+    }
+
+    // HTTP Archive, reading log.entries one at a time
+    private void readHar(InputStream in) throws IOException, InterruptedException {
+
+        try (JsonParser parser = mapper.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new IOException("Invalid HAR file");
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if (!name.equals("log")) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    if (parser.nextToken() != JsonToken.START_ARRAY || !field.equals("entries")) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        JsonNode entry = mapper.readTree(parser);
+                        JsonNode request = entry.path("request");
+                        JsonNode response = entry.path("response");
+                        String url = request.path("url").asText();
+                        Item item;
+                        try {
+                            item = new Item(items, url,
+                                toMessage(request.path("method").asText() + " " + url + " " + request.path("httpVersion").asText(),
+                                    request.path("headers"), request.path("postData")),
+                                toMessage(response.path("httpVersion").asText() + " " + response.path("status").asText() + " "
+                                    + response.path("statusText").asText(), response.path("headers"), response.path("content")));
+                        } catch (IllegalArgumentException e) {
+                            skip(items++, url, "Invalid base64 body, " + e.getMessage());
+                            continue;
+                        }
+                        items++;
+                        submit(item);
+                    }
+                }
+            }
+        }
+    }
+
+    // Raw HTTP message of a HAR request or response, its text body encoded back with the Content-Type charset
+    private static byte[] toMessage(String firstLine, JsonNode headers, JsonNode content) {
+
+        if (!content.has("text"))
+            return null;
+
+        StringBuilder head = new StringBuilder(firstLine).append("\r\n");
+        String contentType = null;
+        for (JsonNode header : headers) {
+            String name = header.path("name").asText();
+            head.append(name).append(": ").append(header.path("value").asText()).append("\r\n");
+            if (name.equalsIgnoreCase("Content-Type"))
+                contentType = header.path("value").asText();
+        }
+        if (contentType == null && content.hasNonNull("mimeType")) {
+            contentType = content.get("mimeType").asText();
+            head.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        head.append("\r\n");
+
+        String text = content.get("text").asText();
+        Charset charset = contentType == null ? null : ContentSniffer.getCharset(contentType);
+        byte[] body = "base64".equals(content.path("encoding").asText()) ? Base64.getMimeDecoder().decode(text)
+            : text.getBytes(charset == null ? StandardCharsets.UTF_8 : charset);
+        byte[] header = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        byte[] message = new byte[header.length + body.length];
+        System.arraycopy(header, 0, message, 0, header.length);
+        System.arraycopy(body, 0, message, header.length, body.length);
+        return message;
+    }
+
+    // Item whose messages cannot be decoded, reported and counted instead of stopping the run
+    private void skip(long index, String url, String message) {
+        malformed++;
+        System.err.println(String.format("Item %d %s: %s, skipped", index, url, message));
+    }
+
+    // Filter item on a worker, writing the results of earlier items first when too many are pending
+    private void submit(Item item) throws IOException, InterruptedException {
+        while (pending.size() >= maxPending)
+            write(pending.poll());
+        pending.add(workers.submit(() -> filter(item)));
+    }
+
+    private void write(Future<byte[]> future) throws IOException, InterruptedException {
+        try {
+            out.write(future.get());
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // NDJSON results of filters on the JSON body of item, bodies that are not JSON are skipped
+    private byte[] filter(Item item) {
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] content = requests ? item.request : item.response;
+        ContentSniffer sniffed = content == null ? null : ContentSniffer.sniff(content);
+        if (sniffed == null || !sniffed.isJson()) {
+            skipped.incrementAndGet();
+            return buffer.toByteArray();
+        }
+
+        List<JsonNode> records;
+        try {
+            records = BurpExtender.readRecords(content, sniffed.jsonStart, sniffed.jsonEnd, sniffed.charset);
+        } catch (IOException e) {
+            skipped.incrementAndGet();
+            return buffer.toByteArray();
+        }
+
+        // Interrupted builtins stop runaway filters, like the deadlines of rules and checks
+        Deadline deadline = new Deadline(timeoutMillis);
+        try {
+            Scope scope = builtins.get();
+            List<JsonNode> collected = new ArrayList<JsonNode>();
+            for (JsonNode record : records)
+                jq.apply(scope, record, collected::add);
+            List<JsonNode> helped = filterHelpers.apply(collected);
+
+            // Out of time even if a try in filters caught the interruption, results may be partial
+            if (deadline.stop())
+                throw new JsonQueryException(String.format(TIME_EXCEEDED, timeoutMillis));
+            messages.incrementAndGet();
+            results.addAndGet(helped.size());
+
+            if (withItem) {
+                List<JsonNode> wrapped = new ArrayList<JsonNode>(helped.size());
+                for (JsonNode result : helped) {
+                    ObjectNode object = mapper.createObjectNode();
+                    object.put("item", item.index);
+                    object.put("url", item.url);
+                    object.set("result", result);
+                    wrapped.add(object);
+                }
+                helped = wrapped;
+            }
+            Renderer.writeAll(helped, raw, pretty, buffer);
+            if (!helped.isEmpty())
+                buffer.write('\n');
+
+        // Unexpected exceptions of filters fail the item only, like errors do
+        } catch (IOException | RuntimeException | StackOverflowError | OutOfMemoryError e) {
+            failed.incrementAndGet();
+            String message = deadline.stop() ? String.format(TIME_EXCEEDED, timeoutMillis)
+                : e instanceof IOException ? e.getMessage() : "Evaluation failed: " + e;
+            System.err.println(String.format("Item %d %s: %s", item.index, item.url, message));
+            buffer.reset();
+        } finally {
+            deadline.stop();
+        }
+        return buffer.toByteArray();
+    }
+}
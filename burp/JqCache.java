@@ -0,0 +1,67 @@
+package burp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.thisptr.jackson.jq.exception.JsonQueryException;
+import net.thisptr.jackson.jq.JsonQuery;
+import net.thisptr.jackson.jq.Version;
+
+
+// LRU cache of compiled JQ queries, shared by all JQ tabs
+public class JqCache {
+
+    private final int capacity;
+    private final Map<String, JsonQuery> queries;
+    private long hits = 0;
+    private long misses = 0;
+
+    public JqCache(int capacity) {
+        this.capacity = capacity;
+        this.queries = new LinkedHashMap<String, JsonQuery>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = -2386431758843601873L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, JsonQuery> eldest) {
+                return size() > JqCache.this.capacity;
+            }
+        };
+    }
+
+    // Return the compiled query for filters, compiling it on a miss
+    public JsonQuery compile(String filters, Version version) throws JsonQueryException {
+
+        String key = version + "\0" + filters;
+        synchronized (this) {
+            JsonQuery jq = queries.get(key);
+            if (jq != null) {
+                hits++;
+                return jq;
+            }
+            misses++;
+        }
+
+        // Compile outside the lock, invalid filters are never cached
+        JsonQuery jq = JsonQuery.compile(filters, version);
+        synchronized (this) {
+            queries.put(key, jq);
+        }
+        return jq;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return String.format("Query cache: %d/%d entries, %d hits, %d misses (%.1f%% hit rate)",
+            queries.size(), capacity, hits, misses, lookups == 0 ? 0.0 : 100.0 * hits / lookups);
+    }
+}
@@ -0,0 +1,418 @@
+package burp;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.List;
+import javax.swing.BoxLayout;
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.swing.Timer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.TextNode;
+import net.thisptr.jackson.jq.exception.JsonQueryException;
+import net.thisptr.jackson.jq.JsonQuery;
+import net.thisptr.jackson.jq.Output;
+import net.thisptr.jackson.jq.Version;
+
+
+// Passive scanner check flagging JSON responses where a JQ predicate holds, and Intruder payload processor applying a JQ filter
+public class JqChecks implements IScannerCheck, IIntruderPayloadProcessor {
+
+    private static final int DETAIL_MAX_BYTES = 4096;
+    private static final int ISSUE_TYPE = 0x08000000;
+    private static final int STATS_INTERVAL = 1000;
+    private static final String RESULTS_EXCEEDED = "Evaluation stopped after %d results (outputMaxResults setting)";
+
+    // Immutable, shared by all scanner and Intruder threads
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final IBurpExtenderCallbacks callbacks;
+    private final IExtensionHelpers helpers;
+    private final JqCache queryCache;
+    private final Builtins builtins;
+    private final Version jqVersion;
+    private final int evaluationMaxMillis;
+    private final int outputMaxResults;
+    private JPanel container = new JPanel(new BorderLayout());
+    private JCheckBox checkBoxScanner;
+    private JLabel labelScanner;
+    private JLabel labelPayloads;
+    private Timer statsTimer;
+
+    // Replaced as a whole when edited so that worker threads never lock
+    private volatile boolean scannerEnabled;
+    private volatile Check predicate;
+    private volatile Check processor;
+
+    // A filter compiled once, with its leading path streamed when there is one
+    private static class Check {
+
+        private final String filters;
+        private final JsonQuery jq;
+        private final StreamingQuery stream;
+        private final String error;
+        private final AtomicLong runs = new AtomicLong();
+        private final AtomicLong matched = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+
+        private Check(String filters, JsonQuery jq, StreamingQuery stream, String error) {
+            this.filters = filters;
+            this.jq = jq;
+            this.stream = stream;
+            this.error = error;
+        }
+
+        private void record(long elapsed) {
+            runs.incrementAndGet();
+            nanos.addAndGet(elapsed);
+        }
+
+        private String getStats(String matches) {
+            if (jq == null)
+                return error;
+            long count = runs.get();
+            return String.format("%d runs, %d %s, %d failed, %d us avg", count, matched.get(), matches, failed.get(),
+                count == 0 ? 0 : nanos.get() / count / 1000);
+        }
+    }
+
+    private static class Issue implements IScanIssue {
+
+        private final IHttpRequestResponse message;
+        private final URL url;
+        private final String detail;
+
+        private Issue(IHttpRequestResponse message, URL url, String detail) {
+            this.message = message;
+            this.url = url;
+            this.detail = detail;
+        }
+
+        @Override
+        public URL getUrl() {
+            return url;
+        }
+
+        @Override
+        public String getIssueName() {
+            return "JQ predicate matched";
+        }
+
+        @Override
+        public int getIssueType() {
+            return ISSUE_TYPE;
+        }
+
+        @Override
+        public String getSeverity() {
+            return "Information";
+        }
+
+        @Override
+        public String getConfidence() {
+            return "Certain";
+        }
+
+        @Override
+        public String getIssueBackground() {
+            return "The JSON response body matched the JQ predicate configured in the JQ extension.";
+        }
+
+        @Override
+        public String getRemediationBackground() {
+            return null;
+        }
+
+        @Override
+        public String getIssueDetail() {
+            return detail;
+        }
+
+        @Override
+        public String getRemediationDetail() {
+            return null;
+        }
+
+        @Override
+        public IHttpRequestResponse[] getHttpMessages() {
+            return new IHttpRequestResponse[] { message };
+        }
+
+        @Override
+        public IHttpService getHttpService() {
+            return message.getHttpService();
+        }
+    }
+
+    public JqChecks(IBurpExtenderCallbacks callbacks, JqCache queryCache, Builtins builtins, Version jqVersion, int evaluationMaxMillis,
+            int outputMaxResults) {
+
+        this.callbacks = callbacks;
+        this.helpers = callbacks.getHelpers();
+        this.queryCache = queryCache;
+        this.builtins = builtins;
+        this.jqVersion = jqVersion;
+        this.evaluationMaxMillis = evaluationMaxMillis;
+        this.outputMaxResults = outputMaxResults;
+
+        /*
+         *  JPanel container
+         *    BorderLayout
+         *      NORTH
+         *        JPanel checks
+         *          BoxLayout Y_AXIS
+         *            JPanel scanner
+         *            | FlowLayout LEFT
+         *            |   JCheckBox checkBoxScanner
+         *            |   JTextField predicateBar
+         *            |   JLabel labelScanner
+         *            JPanel payloads
+         *              FlowLayout LEFT
+         *                JLabel
+         *                JTextField processorBar
+         *                JLabel labelPayloads
+         */
+
+        JPanel checks = new JPanel();
+        checks.setLayout(new BoxLayout(checks, BoxLayout.Y_AXIS));
+
+        // Scanner predicate, e.g. .debug == true or (.errors | length > 0)
+        JPanel scanner = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        checkBoxScanner = new JCheckBox("Scanner predicate");
+        scannerEnabled = "true".equals(callbacks.loadExtensionSetting("scannerEnabled"));
+        checkBoxScanner.setSelected(scannerEnabled);
+        checkBoxScanner.addActionListener(e -> {
+            scannerEnabled = checkBoxScanner.isSelected();
+            callbacks.saveExtensionSetting("scannerEnabled", String.valueOf(scannerEnabled));
+        });
+        JTextField predicateBar = new JTextField(getSetting("scannerPredicate", "."), 40);
+        predicateBar.setFont(new Font("monospaced", Font.BOLD, 13));
+        predicateBar.addActionListener(e -> {
+            callbacks.saveExtensionSetting("scannerPredicate", predicateBar.getText().trim());
+            predicate = compile(predicateBar.getText());
+            updateStats();
+        });
+        labelScanner = new JLabel();
+        scanner.add(checkBoxScanner);
+        scanner.add(predicateBar);
+        scanner.add(labelScanner);
+
+        // Intruder payload processor, e.g. .csrf or @base64
+        JPanel payloads = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JTextField processorBar = new JTextField(getSetting("payloadProcessor", "."), 40);
+        processorBar.setFont(new Font("monospaced", Font.BOLD, 13));
+        processorBar.addActionListener(e -> {
+            callbacks.saveExtensionSetting("payloadProcessor", processorBar.getText().trim());
+            processor = compile(processorBar.getText());
+            updateStats();
+        });
+        labelPayloads = new JLabel();
+        payloads.add(new JLabel("Payload processor"));
+        payloads.add(processorBar);
+        payloads.add(labelPayloads);
+
+        checks.add(scanner);
+        checks.add(payloads);
+        container.add(checks, BorderLayout.NORTH);
+
+        predicate = compile(predicateBar.getText());
+        processor = compile(processorBar.getText());
+
+        // Refresh statistics
+        statsTimer = new Timer(STATS_INTERVAL, e -> {
+            if (container.isShowing())
+                updateStats();
+        });
+        statsTimer.start();
+        updateStats();
+    }
+
+    public Component getUiComponent() {
+        return container;
+    }
+
+    // Scanner predicate and payload processor, to warm up
+    public List<String> getFilters() {
+        return Arrays.asList(predicate.filters, processor.filters);
+    }
+
+    public void shutdown() {
+        statsTimer.stop();
+        scannerEnabled = false;
+    }
+
+    private String getSetting(String name, String value) {
+        String setting = callbacks.loadExtensionSetting(name);
+        return setting == null || setting.isEmpty() ? value : setting;
+    }
+
+    // Filters are compiled once, when edited
+    private Check compile(String filters) {
+        filters = filters.trim().isEmpty() ? "." : filters.trim();
+        try {
+            return new Check(filters, queryCache.compile(filters, jqVersion), StreamingQuery.compile(filters, jqVersion, queryCache), "");
+        } catch (JsonQueryException e) {
+            return new Check(filters, null, null, e.getMessage());
+        }
+    }
+
+    private void updateStats() {
+        labelScanner.setText(predicate.getStats("issues"));
+        labelPayloads.setText(processor.getStats("payloads"));
+    }
+
+    // Outputs of filters on each record of a body, decoded like the JQ tab does, within the results budget
+    // Only the fields they need are read when they start with a path
+    private List<JsonNode> apply(Check check, byte[] content, int start, int end, Charset charset) throws IOException {
+        List<JsonNode> outputs = new ArrayList<JsonNode>();
+        Output output = (out) -> {
+            if (outputMaxResults > 0 && outputs.size() >= outputMaxResults)
+                throw new JsonQueryException(String.format(RESULTS_EXCEEDED, outputMaxResults));
+            outputs.add(out);
+        };
+        if (check.stream != null) {
+            try (JsonParser parser = BurpExtender.createParser(content, start, end, charset)) {
+                check.stream.apply(builtins.get(), parser, output);
+            }
+        } else {
+            for (JsonNode input : BurpExtender.readRecords(content, start, end, charset))
+                check.jq.apply(builtins.get(), input, output);
+        }
+        return outputs;
+    }
+
+    @Override
+    public List<IScanIssue> doPassiveScan(IHttpRequestResponse baseRequestResponse) {
+
+        Check check = predicate;
+        if (check.jq == null || !scannerEnabled)
+            return null;
+
+        byte[] content = baseRequestResponse.getResponse();
+        ContentSniffer sniffed = content == null ? null : ContentSniffer.sniff(content);
+        if (sniffed == null || !sniffed.isJson())
+            return null;
+
+        // Runaway predicates are interrupted, waiting for builtins included, and never escape to the scanner
+        long start = System.nanoTime();
+        Deadline deadline = new Deadline(evaluationMaxMillis);
+        List<JsonNode> outputs;
+        try {
+            outputs = apply(check, content, sniffed.jsonStart, sniffed.jsonEnd, sniffed.charset);
+        } catch (IOException | RuntimeException | StackOverflowError | OutOfMemoryError e) {
+            outputs = null;
+        }
+
+        // Out of time fails the message, even if a try in filters caught the interruption
+        if (deadline.stop())
+            outputs = null;
+        check.record(System.nanoTime() - start);
+        if (outputs == null) {
+            check.failed.incrementAndGet();
+            return null;
+        }
+
+        // Predicate holds when any output is truthy
+        boolean holds = false;
+        for (JsonNode out : outputs)
+            holds |= !out.isNull() && !(out.isBoolean() && !out.booleanValue());
+        if (!holds)
+            return null;
+        check.matched.incrementAndGet();
+
+        // Extracted values are reported as they would be shown in the editor tab
+        String values;
+        try {
+            Renderer renderer = new Renderer(true, false, DETAIL_MAX_BYTES);
+            for (JsonNode out : outputs)
+                renderer.write(out);
+            values = new String(renderer.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            values = e.getMessage();
+        }
+        String detail = "Filter: <b>" + escape(check.filters) + "</b><br><br>Outputs:<br><pre>" + escape(values) + "</pre>";
+
+        URL url = helpers.analyzeRequest(baseRequestResponse).getUrl();
+        return Collections.singletonList(new Issue(baseRequestResponse, url, detail));
+    }
+
+    @Override
+    public List<IScanIssue> doActiveScan(IHttpRequestResponse baseRequestResponse, IScannerInsertionPoint insertionPoint) {
+        return null;
+    }
+
+    @Override
+    public int consolidateDuplicateIssues(IScanIssue existingIssue, IScanIssue newIssue) {
+        if (existingIssue.getIssueName().equals(newIssue.getIssueName())
+                && existingIssue.getUrl().equals(newIssue.getUrl())
+                && existingIssue.getIssueDetail().equals(newIssue.getIssueDetail()))
+            return -1;
+        return 0;
+    }
+
+    @Override
+    public String getProcessorName() {
+        return "JQ";
+    }
+
+    // Payloads are JSON values, or strings when they do not parse, e.g. "a" | @base64
+    // Strings are output raw, a filter without output or failing skips the payload
+    @Override
+    public byte[] processPayload(byte[] currentPayload, byte[] originalPayload, byte[] baseValue) {
+
+        Check check = processor;
+        if (check.jq == null)
+            return currentPayload;
+
+        // Same budgets as the scanner predicate, a payload failing them is skipped
+        long start = System.nanoTime();
+        Deadline deadline = new Deadline(evaluationMaxMillis);
+        try {
+            List<JsonNode> outputs;
+            try {
+                outputs = apply(check, currentPayload, 0, currentPayload.length, null);
+            } catch (JsonQueryException e) {
+                throw e;
+            } catch (IOException e) {
+                outputs = new ArrayList<JsonNode>(1);
+                check.jq.apply(builtins.get(), TextNode.valueOf(new String(currentPayload, StandardCharsets.UTF_8)), outputs::add);
+            }
+            if (deadline.stop()) {
+                check.failed.incrementAndGet();
+                return null;
+            }
+            if (outputs.isEmpty())
+                return null;
+
+            JsonNode out = outputs.get(0);
+            check.matched.incrementAndGet();
+            return out.isTextual() ? out.textValue().getBytes(StandardCharsets.UTF_8) : mapper.writeValueAsBytes(out);
+        } catch (IOException | RuntimeException | StackOverflowError | OutOfMemoryError e) {
+            deadline.stop();
+            check.failed.incrementAndGet();
+            return null;
+        } finally {
+            check.record(System.nanoTime() - start);
+        }
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
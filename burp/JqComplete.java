@@ -4,8 +4,11 @@ import java.awt.event.ActionEvent;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.swing.AbstractAction;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
@@ -107,34 +110,172 @@ public class JqComplete implements DocumentListener {
         "walk()",
         "while()",
         "with_entries");
+    private static final PrefixIndex keywordsIndex = new PrefixIndex(count(keywords));
 
-    private List<String> keys;
+    private final List<String> added = new ArrayList<String>();
+    private final AtomicLong builds = new AtomicLong();
+    private List<String> candidates = Collections.emptyList();
+    private int candidate;
+    private Map<String, Integer> frequencies = Collections.emptyMap();
+    private PrefixIndex keys = PrefixIndex.EMPTY;
     private Mode mode = Mode.INSERT;
+    private String path;
+    private final HashMap<String, PrefixIndex> pathIndexes = new HashMap<String, PrefixIndex>();
+    private int prefixLength;
+    private Schema schema;
     private final JTextField textField;
 
     public JqComplete(JTextField textField) {
         this.textField = textField;
         ((AbstractDocument) this.textField.getDocument()).setDocumentFilter(new JqDocumentFilter());
-        this.keys = new ArrayList<String>();
     }
 
+    private static Map<String, Integer> count(List<String> words) {
+        HashMap<String, Integer> frequencies = new HashMap<String, Integer>();
+        for (String word : words)
+            frequencies.merge(word, 1, Integer::sum);
+        return frequencies;
+    }
+
+    // Insert keyword into the current index in place, and again into the index being built if any
     public void addKeyword(String keyword) {
+        if (keys == PrefixIndex.EMPTY)
+            keys = new PrefixIndex(Collections.<String, Integer>emptyMap());
         keys.add(keyword);
-        Collections.sort(keys);
+        added.add(keyword);
     }
 
     public void setKeywords(List<String> keys) {
-        this.keys = keys;
-        Collections.sort(this.keys);
+        setKeywords(count(keys));
     }
 
-    public void setKeywords(HashSet<String> keys) {
-        this.keys = new ArrayList<String>(keys);
-        Collections.sort(this.keys);
+    // Index keys and their frequencies in the background, completion uses the previous index meanwhile
+    public void setKeywords(Map<String, Integer> keys) {
+        if (keys == frequencies)
+            return;
+        long build = builds.incrementAndGet();
+        frequencies = keys;
+        added.clear();
+        CompletableFuture.supplyAsync(() -> new PrefixIndex(keys)).thenAccept(index -> {
+            SwingUtilities.invokeLater(() -> {
+                if (builds.get() != build)
+                    return;
+                for (String keyword : added)
+                    index.add(keyword);
+                this.keys = index;
+            });
+        });
     }
 
     public void clearKeywords() {
-        keys.clear();
+        builds.incrementAndGet();
+        frequencies = Collections.emptyMap();
+        added.clear();
+        keys = PrefixIndex.EMPTY;
+        schema = null;
+        pathIndexes.clear();
+    }
+
+    // Complete keys valid at the path typed so far, falling back to all document keys
+    public void setSchema(Schema schema) {
+        if (schema == this.schema)
+            return;
+        setKeywords(schema.getKeys());
+        this.schema = schema;
+        pathIndexes.clear();
+    }
+
+    // Index of keys found at path, built on first use, null for unknown paths
+    private PrefixIndex getPathIndex(String path) {
+        if (schema == null)
+            return null;
+        return pathIndexes.computeIfAbsent(path, p -> {
+            Map<String, Integer> children = schema.getChildren(p);
+            return children == null ? null : new PrefixIndex(children);
+        });
+    }
+
+    // Schema path of the output of expr, e.g. ".data[] | .attributes" is .data[].attributes
+    // null when it cannot be told statically
+    static String getPath(String expr) {
+
+        // Trailing path expression
+        expr = expr.trim();
+        int start = expr.length();
+        while (start > 0 && isPathChar(expr.charAt(start - 1)))
+            start--;
+        String token = expr.substring(start);
+        if (!token.isEmpty() && token.charAt(0) != '.')
+            return null;
+
+        String input = getInputPath(expr.substring(0, start).trim());
+        String path = normalizePath(token);
+        if (input == null || path == null)
+            return null;
+        return input + path;
+    }
+
+    // Schema path of the input of an expression following context
+    private static String getInputPath(String context) {
+        if (context.isEmpty())
+            return "";
+        if (context.endsWith("|"))
+            return getPath(context.substring(0, context.length() - 1));
+        if (context.endsWith("select("))
+            return getInputPath(context.substring(0, context.length() - 7).trim());
+        if (context.endsWith("map(")) {
+            String input = getInputPath(context.substring(0, context.length() - 4).trim());
+            return input == null ? null : input + "[]";
+        }
+        return null;
+    }
+
+    private static boolean isPathChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '[' || c == ']' || c == '"' || c == '?';
+    }
+
+    // Rewrite path expression with [] for any array index and .key for any key access
+    private static String normalizePath(String token) {
+
+        StringBuilder path = new StringBuilder();
+        int i = 0;
+        while (i < token.length()) {
+            char c = token.charAt(i);
+            if (c == '?') {
+                i++;
+            } else if (c == '.' && i + 1 < token.length() && token.charAt(i + 1) == '"') {
+                int end = token.indexOf('"', i + 2);
+                if (end < 0)
+                    return null;
+                path.append('.').append(token, i + 2, end);
+                i = end + 1;
+            } else if (c == '.') {
+                int end = i + 1;
+                while (end < token.length() && (Character.isLetterOrDigit(token.charAt(end)) || token.charAt(end) == '_'))
+                    end++;
+                if (end > i + 1)
+                    path.append(token, i, end);
+                i = end;
+            } else if (c == '[') {
+                int end = token.indexOf(']', i);
+                if (end < 0)
+                    return null;
+                if (end > i + 1 && token.charAt(i + 1) == '"')
+                    path.append('.').append(token, i + 2, end - 1);
+                else
+                    path.append("[]");
+                i = end + 1;
+            } else {
+                return null;
+            }
+        }
+        return path.toString();
+    }
+
+    // Show value types of the selected key completion
+    private void showTypes() {
+        String types = schema == null || path == null ? "" : schema.getTypes(path + "." + candidates.get(candidate));
+        textField.setToolTipText(types.isEmpty() ? null : candidates.get(candidate) + ": " + types);
     }
 
     class JqDocumentFilter extends DocumentFilter {
@@ -197,10 +338,18 @@ public class JqComplete implements DocumentListener {
                 break;
         }
 
-        // JSON keys or JQ keywords
-        List<String> lst = keywords;
-        if (content.charAt(w) == '.')
-            lst = keys;
+        // JSON keys, scoped to the current path when known, or JQ keywords
+        PrefixIndex index = keywordsIndex;
+        path = null;
+        if (content.charAt(w) == '.') {
+            index = keys;
+            path = getPath(content.substring(0, w));
+            PrefixIndex pathIndex = path == null ? null : getPathIndex(path);
+            if (pathIndex != null)
+                index = pathIndex;
+            else
+                path = null;
+        }
 
         // Handle start of text field
         if (w == 0 && Character.isLetter(content.charAt(w)))
@@ -210,16 +359,16 @@ public class JqComplete implements DocumentListener {
             return;
 
         String prefix = content.substring(w + 1);
-        int n = Collections.binarySearch(lst, prefix);
-        if (n < 0 && -n <= lst.size()) {
-            String match = lst.get(-n - 1);
-            // A completion is found
-            if (match.startsWith(prefix)) {
-                String completion = match.substring(pos - w);
-                // We cannot modify Document from within notification,
-                // so we submit a task that does the change later
-                SwingUtilities.invokeLater(new CompletionTask(completion, pos + 1));
-            }
+        List<String> matches = index.lookup(prefix);
+        // Completions are found, best ranked first
+        if (!matches.isEmpty() && !index.contains(prefix)) {
+            candidates = matches;
+            candidate = 0;
+            prefixLength = prefix.length();
+            String completion = matches.get(0).substring(prefixLength);
+            // We cannot modify Document from within notification,
+            // so we submit a task that does the change later
+            SwingUtilities.invokeLater(new CompletionTask(completion, pos + 1));
         // Nothing found
         } else {
             mode = Mode.INSERT;
@@ -248,6 +397,32 @@ public class JqComplete implements DocumentListener {
         }
     }
 
+    public class CycleAction extends AbstractAction {
+
+        private static final long serialVersionUID = -3050745321925418417L;
+        private final int direction;
+
+        public CycleAction(int direction) {
+            this.direction = direction;
+        }
+
+        // Replace the selected completion by the next or previous ranked candidate
+        @Override
+        public void actionPerformed(ActionEvent ev) {
+            if (mode != Mode.COMPLETION || candidates.size() < 2)
+                return;
+            candidate = Math.floorMod(candidate + direction, candidates.size());
+            String completion = candidates.get(candidate).substring(prefixLength);
+            int position = textField.getSelectionStart();
+            StringBuffer sb = new StringBuffer(textField.getText());
+            sb.replace(position, textField.getSelectionEnd(), completion);
+            textField.setText(sb.toString());
+            textField.setCaretPosition(position + completion.length());
+            textField.moveCaretPosition(position);
+            showTypes();
+        }
+    }
+
     private class CompletionTask implements Runnable {
         private String completion;
         private int position;
@@ -264,6 +439,7 @@ public class JqComplete implements DocumentListener {
             textField.setCaretPosition(position + completion.length());
             textField.moveCaretPosition(position);
             mode = Mode.COMPLETION;
+            showTypes();
         }
     }
 
@@ -0,0 +1,435 @@
+package burp;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JMenuItem;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.Timer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import net.thisptr.jackson.jq.exception.JsonQueryException;
+import net.thisptr.jackson.jq.JsonQuery;
+import net.thisptr.jackson.jq.Scope;
+import net.thisptr.jackson.jq.Version;
+
+
+// Suite tab panel applying one JQ filter to many Proxy/Site map items in parallel
+public class JqHistoryTab implements IContextMenuFactory {
+
+    private static final String CANCELLED = "Evaluation cancelled";
+    private static final String TIME_EXCEEDED = "Evaluation stopped after %d ms (evaluationMaxMillis setting)";
+    private static final int PROGRESS_INTERVAL = 250;
+    private static final int RESULT_MAX_BYTES = 4096;
+
+    private final IExtensionHelpers helpers;
+    private final JqCache queryCache;
+    private final Builtins builtins;
+    private final Version jqVersion;
+    private final int evaluationMaxMillis;
+    private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private final List<IHttpRequestResponse> items = new ArrayList<IHttpRequestResponse>();
+    private final ResultsModel results = new ResultsModel();
+
+    private JPanel container = new JPanel(new BorderLayout());
+    private JComboBox<String> comboBoxTarget;
+    private JLabel labelItems;
+    private JLabel labelStatus;
+    private JProgressBar progressBar;
+    private JTextField filtersBar;
+    private Job job;
+
+    private static class Row {
+
+        private final int index;
+        private final String method;
+        private final String url;
+        private final int results;
+        private final String output;
+
+        private Row(int index, String method, String url, int results, String output) {
+            this.index = index;
+            this.method = method;
+            this.url = url;
+            this.results = results;
+            this.output = output;
+        }
+    }
+
+    private static class ResultsModel extends AbstractTableModel {
+
+        private static final long serialVersionUID = 2921094838517436102L;
+        private static final String[] columns = { "#", "Method", "URL", "Results", "Output" };
+        private final List<Row> rows = new ArrayList<Row>();
+
+        private void add(List<Row> added) {
+            if (added.isEmpty())
+                return;
+            int first = rows.size();
+            rows.addAll(added);
+            fireTableRowsInserted(first, rows.size() - 1);
+        }
+
+        private void clear() {
+            rows.clear();
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columns[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == 0 || column == 3 ? Integer.class : String.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            Row r = rows.get(row);
+            switch (column) {
+                case 0: return r.index;
+                case 1: return r.method;
+                case 2: return r.url;
+                case 3: return r.results;
+                default: return r.output;
+            }
+        }
+    }
+
+    // A run over a snapshot of items, progress is polled from the event thread
+    // Workers register while filtering an item, so that cancelling or the time budget interrupts the evaluation itself
+    private class Job {
+
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final AtomicInteger done = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
+        private final ConcurrentLinkedQueue<Row> rows = new ConcurrentLinkedQueue<Row>();
+        private final Map<Thread, Long> running = new HashMap<Thread, Long>();
+        private final IHttpRequestResponse[] batch;
+        private final JsonQuery jq;
+        private final boolean isRequest;
+        private final long start = System.nanoTime();
+
+        private Job(IHttpRequestResponse[] batch, JsonQuery jq, boolean isRequest) {
+            this.batch = batch;
+            this.jq = jq;
+            this.isRequest = isRequest;
+        }
+
+        private void run() {
+            IntStream.range(0, batch.length).parallel().forEach(i -> {
+                try {
+                    if (!cancelled.get())
+                        process(i);
+                } finally {
+                    done.incrementAndGet();
+                }
+            });
+        }
+
+        // Parse and filter one item, records of NDJSON bodies in order, non JSON bodies are skipped
+        private void process(int i) {
+
+            IHttpRequestResponse item = batch[i];
+            byte[] content = isRequest ? item.getRequest() : item.getResponse();
+            if (content == null) {
+                skipped.incrementAndGet();
+                return;
+            }
+            bytes.addAndGet(content.length);
+
+            ContentSniffer sniffed = ContentSniffer.sniff(content);
+            if (!sniffed.isJson()) {
+                skipped.incrementAndGet();
+                return;
+            }
+            List<JsonNode> records;
+            try {
+                records = BurpExtender.readRecords(content, sniffed.jsonStart, sniffed.jsonEnd, sniffed.charset);
+            } catch (IOException e) {
+                skipped.incrementAndGet();
+                return;
+            }
+            if (records.isEmpty()) {
+                skipped.incrementAndGet();
+                return;
+            }
+
+            IRequestInfo requestInfo = helpers.analyzeRequest(item.getHttpService(), item.getRequest());
+            String output;
+            int count;
+            begin();
+            try {
+                // Each record of NDJSON bodies is an input, like in the JQ tab
+                Renderer renderer = new Renderer(true, false, RESULT_MAX_BYTES);
+                Scope scope = builtins.get();
+                for (JsonNode record : records)
+                    jq.apply(scope, record, (out) -> {
+                        if (cancelled.get())
+                            throw new JsonQueryException(CANCELLED);
+                        try {
+                            renderer.write(out);
+                        } catch (IOException e) {
+                            throw new JsonQueryException(e);
+                        }
+                    });
+
+                // Interrupted, even if a try in filters caught it
+                if (Thread.currentThread().isInterrupted())
+                    throw new JsonQueryException(InterruptibleFunction.INTERRUPTED);
+                output = new String(renderer.toByteArray(), "UTF-8").replace('\n', ' ');
+                count = renderer.getCount() + renderer.getTruncated();
+
+            // Unexpected exceptions of filters fail the item only, like errors do, instead of the rest of the batch
+            } catch (IOException | RuntimeException | StackOverflowError | OutOfMemoryError e) {
+                if (cancelled.get())
+                    return;
+                output = Thread.currentThread().isInterrupted() ? String.format(TIME_EXCEEDED, evaluationMaxMillis)
+                    : e instanceof IOException ? e.getMessage() : "Evaluation failed: " + e;
+                count = 0;
+            } finally {
+                end();
+            }
+            rows.add(new Row(i + 1, requestInfo.getMethod(), String.valueOf(requestInfo.getUrl()), count, output));
+        }
+
+        // Register the worker filtering an item, interrupted right away if the job was cancelled meanwhile
+        private void begin() {
+            synchronized (running) {
+                running.put(Thread.currentThread(), System.nanoTime());
+                if (cancelled.get())
+                    Thread.currentThread().interrupt();
+            }
+        }
+
+        // Interrupts are only sent under the lock, so none reaches the pooled worker once it cleared its own
+        private void end() {
+            synchronized (running) {
+                running.remove(Thread.currentThread());
+                Thread.interrupted();
+            }
+        }
+
+        // Interrupt workers filtering an item for at least maxNanos, all of them with 0
+        private void interrupt(long maxNanos) {
+            long now = System.nanoTime();
+            synchronized (running) {
+                for (Map.Entry<Thread, Long> entry : running.entrySet())
+                    if (now - entry.getValue() >= maxNanos)
+                        entry.getKey().interrupt();
+            }
+        }
+
+        private List<Row> drain() {
+            List<Row> drained = new ArrayList<Row>();
+            Row row;
+            while ((row = rows.poll()) != null)
+                drained.add(row);
+            return drained;
+        }
+    }
+
+    public JqHistoryTab(IBurpExtenderCallbacks callbacks, JqCache queryCache, Builtins builtins, Version jqVersion, int evaluationMaxMillis) {
+
+        this.helpers = callbacks.getHelpers();
+        this.queryCache = queryCache;
+        this.builtins = builtins;
+        this.jqVersion = jqVersion;
+        this.evaluationMaxMillis = evaluationMaxMillis;
+
+        /*
+         *  JPanel container
+         *    BorderLayout
+         *      NORTH
+         *      | JPanel filters
+         *      |   BoxLayout Y_AXIS
+         *      |     JTextField filtersBar
+         *      |     JPanel filtersHelpers
+         *      |       FlowLayout LEFT
+         *      |         JComboBox comboBoxTarget
+         *      |         JButton buttonRun, buttonCancel, buttonProxyHistory, buttonClear
+         *      |         JLabel labelItems
+         *      CENTER
+         *      | JTable table
+         *      SOUTH
+         *        JPanel status
+         *          JProgressBar progressBar
+         *          JLabel labelStatus
+         */
+
+        // Filters bar
+        JPanel filters = new JPanel();
+        filters.setLayout(new BoxLayout(filters, BoxLayout.Y_AXIS));
+        filtersBar = new JTextField(".");
+        filtersBar.setFont(new Font("monospaced", Font.BOLD, 13));
+        filtersBar.addActionListener(e -> run());
+
+        // Filters helpers
+        JPanel filtersHelpers = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        comboBoxTarget = new JComboBox<String>(new String[] { "Response", "Request" });
+        JButton buttonRun = new JButton("Run");
+        buttonRun.addActionListener(e -> run());
+        JButton buttonCancel = new JButton("Cancel");
+        buttonCancel.addActionListener(e -> cancel());
+        JButton buttonProxyHistory = new JButton("Add Proxy history");
+        buttonProxyHistory.addActionListener(e -> addItems(callbacks.getProxyHistory()));
+        JButton buttonClear = new JButton("Clear");
+        buttonClear.addActionListener(e -> {
+            cancel();
+            job = null;
+            items.clear();
+            results.clear();
+            updateItems();
+        });
+        labelItems = new JLabel();
+        filtersHelpers.add(comboBoxTarget);
+        filtersHelpers.add(buttonRun);
+        filtersHelpers.add(buttonCancel);
+        filtersHelpers.add(buttonProxyHistory);
+        filtersHelpers.add(buttonClear);
+        filtersHelpers.add(labelItems);
+        filters.add(filtersBar);
+        filters.add(filtersHelpers);
+
+        // Results
+        JTable table = new JTable(results);
+        table.setAutoCreateRowSorter(true);
+        table.getColumnModel().getColumn(0).setPreferredWidth(50);
+        table.getColumnModel().getColumn(1).setPreferredWidth(60);
+        table.getColumnModel().getColumn(2).setPreferredWidth(400);
+        table.getColumnModel().getColumn(3).setPreferredWidth(60);
+        table.getColumnModel().getColumn(4).setPreferredWidth(600);
+
+        // Status
+        JPanel status = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        progressBar = new JProgressBar();
+        progressBar.setStringPainted(true);
+        labelStatus = new JLabel();
+        status.add(progressBar);
+        status.add(labelStatus);
+
+        container.add(filters, BorderLayout.NORTH);
+        container.add(new JScrollPane(table), BorderLayout.CENTER);
+        container.add(status, BorderLayout.SOUTH);
+        updateItems();
+    }
+
+    public Component getUiComponent() {
+        return container;
+    }
+
+    @Override
+    public List<JMenuItem> createMenuItems(IContextMenuInvocation invocation) {
+
+        IHttpRequestResponse[] selected = invocation.getSelectedMessages();
+        if (selected == null || selected.length == 0)
+            return Collections.emptyList();
+
+        JMenuItem item = new JMenuItem("Send to JQ (" + selected.length + " items)");
+        item.addActionListener(e -> addItems(selected));
+        return Collections.singletonList(item);
+    }
+
+    public void addItems(IHttpRequestResponse[] added) {
+        items.addAll(Arrays.asList(added));
+        updateItems();
+    }
+
+    private void updateItems() {
+        labelItems.setText(items.size() + " items");
+    }
+
+    // Compile filter once and share it, with the scope, across all workers
+    private void run() {
+
+        cancel();
+        String filters = filtersBar.getText().trim();
+        if (filters.equals(""))
+            filters = ".";
+
+        JsonQuery jq;
+        try {
+            jq = queryCache.compile(filters, jqVersion);
+        } catch (JsonQueryException e) {
+            labelStatus.setText(e.getMessage());
+            return;
+        }
+
+        results.clear();
+        Job current = new Job(items.toArray(new IHttpRequestResponse[0]), jq, comboBoxTarget.getSelectedIndex() == 1);
+        job = current;
+        progressBar.setMaximum(current.batch.length);
+        progressBar.setValue(0);
+        pool.execute(current::run);
+
+        // Poll progress, publish rows in batches and interrupt items running past their time budget
+        Timer timer = new Timer(PROGRESS_INTERVAL, null);
+        timer.addActionListener(e -> {
+            if (job != current) {
+                timer.stop();
+                return;
+            }
+            if (evaluationMaxMillis > 0)
+                current.interrupt(evaluationMaxMillis * 1000000L);
+            int done = current.done.get();
+            results.add(current.drain());
+            progressBar.setValue(done);
+            double seconds = Math.max(1e-3, (System.nanoTime() - current.start) / 1e9);
+            labelStatus.setText(String.format("%s%d/%d items, %d skipped, %.0f items/s, %.1f MB/s",
+                current.cancelled.get() ? "Cancelled: " : "",
+                done, current.batch.length, current.skipped.get(),
+                done / seconds, current.bytes.get() / seconds / (1 << 20)));
+            if (done == current.batch.length)
+                timer.stop();
+        });
+        timer.start();
+    }
+
+    private void cancel() {
+        if (job != null) {
+            job.cancelled.set(true);
+            job.interrupt(0);
+        }
+    }
+
+    public void shutdown() {
+        cancel();
+        pool.shutdownNow();
+    }
+}
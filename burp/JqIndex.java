@@ -0,0 +1,640 @@
+package burp;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.JTable;
+import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.Timer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.thisptr.jackson.jq.exception.JsonQueryException;
+import net.thisptr.jackson.jq.JsonQuery;
+import net.thisptr.jackson.jq.Version;
+
+
+// Suite tab panel indexing JSON paths and values of Proxy traffic in the background, and looking them up
+// Queries like .user.id == 4711 and has("isAdmin") get candidates from the index, then verified with JQ
+public class JqIndex implements IHttpListener, IMessageEditorController {
+
+    private static final long BUFFER_MAX_BYTES = 32 << 20;
+    private static final int QUEUE_MAX_MESSAGES = 10000;
+    private static final int QUERY_MAX_RESULTS = 10000;
+    private static final int STATS_INTERVAL = 1000;
+    private static final int SHUTDOWN_MILLIS = 5000;
+    private static final String CANCELLED = "Query cancelled";
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final IBurpExtenderCallbacks callbacks;
+    private final IExtensionHelpers helpers;
+    private final JqCache queryCache;
+    private final Builtins builtins;
+    private final Version jqVersion;
+    private final TrafficIndex index;
+    private final List<Ref> refs = Collections.synchronizedList(new ArrayList<Ref>());
+    private final MatchesModel matches = new MatchesModel();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong generation = new AtomicLong();
+    private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    // Index changes happen on one thread, queries on another
+    private final ExecutorService indexer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "JQ indexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService searcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "JQ index query");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private JPanel container = new JPanel(new BorderLayout());
+    private JTextField queryBar;
+    private JCheckBox checkBoxVerify;
+    private JLabel labelIndex;
+    private JLabel labelStatus;
+    private IMessageEditor viewer;
+    private Ref selected;
+    private Timer statsTimer;
+    private volatile boolean enabled;
+
+    // Indexed side of a message, saved to temporary files by Burp
+    private static class Ref {
+
+        private final IHttpRequestResponsePersisted message;
+        private final boolean isRequest;
+
+        private Ref(IHttpRequestResponsePersisted message, boolean isRequest) {
+            this.message = message;
+            this.isRequest = isRequest;
+        }
+    }
+
+    private static class Row {
+
+        private final int id;
+        private final Ref ref;
+        private final String method;
+        private final String url;
+        private final short status;
+
+        private Row(int id, Ref ref, String method, String url, short status) {
+            this.id = id;
+            this.ref = ref;
+            this.method = method;
+            this.url = url;
+            this.status = status;
+        }
+    }
+
+    private static class MatchesModel extends AbstractTableModel {
+
+        private static final long serialVersionUID = -3036915520468376017L;
+        private static final String[] columns = { "#", "Target", "Method", "URL", "Status" };
+        private List<Row> rows = new ArrayList<Row>();
+
+        private void update(List<Row> updated) {
+            rows = updated;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columns[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == 0 || column == 4 ? Integer.class : String.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            Row r = rows.get(row);
+            switch (column) {
+                case 0: return r.id + 1;
+                case 1: return r.ref.isRequest ? "Request" : "Response";
+                case 2: return r.method;
+                case 3: return r.url;
+                default: return (int) r.status;
+            }
+        }
+    }
+
+    // Index terms to look up, all of them, and the equivalent JQ predicate
+    // Clauses are <path>, <path> == <scalar> or has(<key>), joined with and
+    static class Query {
+
+        private final String text;
+        private final List<String> terms = new ArrayList<String>();
+        private final List<String> predicates = new ArrayList<String>();
+        private int pos = 0;
+
+        Query(String text) throws JsonQueryException {
+            this.text = text.trim();
+            do {
+                skipSpaces();
+                clause();
+                skipSpaces();
+            } while (pos < this.text.length() && keyword("and"));
+            if (pos < this.text.length())
+                throw new JsonQueryException("Unexpected " + this.text.substring(pos) + ", expected and");
+        }
+
+        String getPredicate() {
+            return predicates.stream().map(p -> "(" + p + ")").collect(Collectors.joining(" and "));
+        }
+
+        List<String> getTerms() {
+            return terms;
+        }
+
+        private void clause() throws JsonQueryException {
+
+            // Object key anywhere
+            if (text.startsWith("has(", pos)) {
+                pos += 4;
+                skipSpaces();
+                String key = string();
+                skipSpaces();
+                expect(')');
+                terms.add(TrafficIndex.keyTerm(key));
+                predicates.add("any(..; type == \"object\" and has(" + quote(key) + "))");
+                return;
+            }
+
+            // Path, e.g. .users[].id, and a value if compared
+            if (pos >= text.length() || text.charAt(pos) != '.')
+                throw new JsonQueryException("Expected a path like .user.id, or has(\"key\")");
+            List<String> steps = path();
+            if (steps.isEmpty())
+                throw new JsonQueryException("Path . matches every message");
+            StringBuilder path = new StringBuilder();
+            for (String step : steps)
+                path.append(step == null ? "[]" : "." + step);
+            skipSpaces();
+            if (text.startsWith("==", pos)) {
+                pos += 2;
+                skipSpaces();
+                JsonNode value = value();
+                terms.add(TrafficIndex.valueTerm(path.toString(), value));
+                predicates.add("any(" + generator(steps) + "; . == " + value + ")");
+            } else {
+                terms.add(TrafficIndex.pathTerm(path.toString()));
+                String last = steps.get(steps.size() - 1);
+                String parent = generator(steps.subList(0, steps.size() - 1));
+                predicates.add(last == null
+                    ? "any(" + parent + "; type == \"array\" and length > 0)"
+                    : "any(" + parent + "; type == \"object\" and has(" + quote(last) + "))");
+            }
+        }
+
+        // Keys, or null for array elements whatever their index
+        private List<String> path() throws JsonQueryException {
+            List<String> steps = new ArrayList<String>();
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+                if (c == '.' && pos + 1 < text.length() && text.charAt(pos + 1) == '"') {
+                    pos++;
+                    steps.add(string());
+                } else if (c == '.' && pos + 1 < text.length() && isKeyChar(text.charAt(pos + 1))) {
+                    int start = ++pos;
+                    while (pos < text.length() && isKeyChar(text.charAt(pos)))
+                        pos++;
+                    steps.add(text.substring(start, pos));
+                } else if (c == '.') {
+                    pos++;
+                } else if (c == '[') {
+                    pos++;
+                    if (pos < text.length() && text.charAt(pos) == '"') {
+                        steps.add(string());
+                    } else {
+                        while (pos < text.length() && Character.isDigit(text.charAt(pos)))
+                            pos++;
+                        steps.add(null);
+                    }
+                    expect(']');
+                } else if (c == '?') {
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+            return steps;
+        }
+
+        private static boolean isKeyChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '-';
+        }
+
+        // Scalar JSON value, a bare word being a string
+        private JsonNode value() throws JsonQueryException {
+            String token;
+            if (pos < text.length() && text.charAt(pos) == '"') {
+                int start = pos;
+                string();
+                token = text.substring(start, pos);
+            } else {
+                int start = pos;
+                while (pos < text.length() && !Character.isWhitespace(text.charAt(pos)))
+                    pos++;
+                token = text.substring(start, pos);
+            }
+            if (token.isEmpty())
+                throw new JsonQueryException("Expected a value after ==");
+            JsonNode value;
+            try {
+                value = mapper.readTree(token);
+            } catch (IOException e) {
+                return mapper.getNodeFactory().textNode(token);
+            }
+            if (value == null || !value.isValueNode())
+                throw new JsonQueryException("Only scalar values are indexed: " + token);
+            return value;
+        }
+
+        // JSON string literal
+        private String string() throws JsonQueryException {
+            int start = pos;
+            expect('"');
+            while (pos < text.length() && text.charAt(pos) != '"')
+                pos += text.charAt(pos) == '\\' ? 2 : 1;
+            expect('"');
+            try {
+                return mapper.readTree(text.substring(start, pos)).asText();
+            } catch (IOException e) {
+                throw new JsonQueryException("Invalid string " + text.substring(start, pos));
+            }
+        }
+
+        private boolean keyword(String keyword) {
+            if (!text.startsWith(keyword, pos) || pos + keyword.length() >= text.length()
+                    || !Character.isWhitespace(text.charAt(pos + keyword.length())))
+                return false;
+            pos += keyword.length();
+            return true;
+        }
+
+        private void expect(char c) throws JsonQueryException {
+            if (pos >= text.length() || text.charAt(pos) != c)
+                throw new JsonQueryException("Expected " + c + " at " + pos);
+            pos++;
+        }
+
+        private void skipSpaces() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+                pos++;
+        }
+
+        // JQ generator of the values at steps, without errors on other types
+        private static String generator(List<String> steps) {
+            if (steps.isEmpty())
+                return ".";
+            return steps.stream().map(step -> step == null ? "(arrays|.[])" : ".[" + quote(step) + "]?").collect(Collectors.joining("|"));
+        }
+
+        private static String quote(String key) {
+            return mapper.getNodeFactory().textNode(key).toString();
+        }
+    }
+
+    public JqIndex(IBurpExtenderCallbacks callbacks, JqCache queryCache, Builtins builtins, Version jqVersion, int maxDepth, int maxNodes) {
+
+        this.callbacks = callbacks;
+        this.helpers = callbacks.getHelpers();
+        this.queryCache = queryCache;
+        this.builtins = builtins;
+        this.jqVersion = jqVersion;
+        this.index = new TrafficIndex(BUFFER_MAX_BYTES, maxDepth, maxNodes);
+
+        /*
+         *  JPanel container
+         *    BorderLayout
+         *      NORTH
+         *      | JPanel filters
+         *      |   BoxLayout Y_AXIS
+         *      |     JTextField queryBar
+         *      |     JPanel filtersHelpers
+         *      |       FlowLayout LEFT
+         *      |         JCheckBox checkBoxEnabled, checkBoxVerify
+         *      |         JButton buttonSearch, buttonRebuild, buttonClear
+         *      |         JLabel labelIndex
+         *      CENTER
+         *      | JSplitPane
+         *      |   JTable table
+         *      |   IMessageEditor viewer
+         *      SOUTH
+         *        JLabel labelStatus
+         */
+
+        JPanel filters = new JPanel();
+        filters.setLayout(new BoxLayout(filters, BoxLayout.Y_AXIS));
+        queryBar = new JTextField();
+        queryBar.setFont(new Font("monospaced", Font.BOLD, 13));
+        queryBar.setToolTipText(".user.id == 4711, .users[].role, has(\"isAdmin\"), joined with and");
+        queryBar.addActionListener(e -> search());
+
+        JPanel filtersHelpers = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        // Opt in, indexing parses and saves to disk every JSON response of the Proxy
+        JCheckBox checkBoxEnabled = new JCheckBox("Index Proxy traffic");
+        checkBoxEnabled.setToolTipText("Parse, index and save to temporary files each JSON message going through the Proxy");
+        enabled = "true".equals(callbacks.loadExtensionSetting("indexEnabled"));
+        checkBoxEnabled.setSelected(enabled);
+        checkBoxEnabled.addActionListener(e -> {
+            enabled = checkBoxEnabled.isSelected();
+            callbacks.saveExtensionSetting("indexEnabled", String.valueOf(enabled));
+        });
+        checkBoxVerify = new JCheckBox("Verify with JQ", true);
+        checkBoxVerify.setToolTipText("Run the equivalent JQ predicate on each candidate message");
+        JButton buttonSearch = new JButton("Search");
+        buttonSearch.addActionListener(e -> search());
+        JButton buttonRebuild = new JButton("Rebuild from Proxy history");
+        buttonRebuild.addActionListener(e -> rebuild());
+        JButton buttonClear = new JButton("Clear");
+        buttonClear.addActionListener(e -> {
+            matches.update(new ArrayList<Row>());
+            indexer.execute(this::clear);
+        });
+        labelIndex = new JLabel();
+        filtersHelpers.add(checkBoxEnabled);
+        filtersHelpers.add(checkBoxVerify);
+        filtersHelpers.add(buttonSearch);
+        filtersHelpers.add(buttonRebuild);
+        filtersHelpers.add(buttonClear);
+        filtersHelpers.add(labelIndex);
+        filters.add(queryBar);
+        filters.add(filtersHelpers);
+
+        // Matches and the selected message
+        JTable table = new JTable(matches);
+        table.setAutoCreateRowSorter(true);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getColumnModel().getColumn(0).setPreferredWidth(60);
+        table.getColumnModel().getColumn(1).setPreferredWidth(80);
+        table.getColumnModel().getColumn(2).setPreferredWidth(60);
+        table.getColumnModel().getColumn(3).setPreferredWidth(600);
+        table.getColumnModel().getColumn(4).setPreferredWidth(60);
+        viewer = callbacks.createMessageEditor(this, false);
+        table.getSelectionModel().addListSelectionListener(e -> {
+            int row = table.getSelectedRow();
+            if (e.getValueIsAdjusting() || row < 0)
+                return;
+            selected = matches.rows.get(table.convertRowIndexToModel(row)).ref;
+            viewer.setMessage(selected.isRequest ? selected.message.getRequest() : selected.message.getResponse(), selected.isRequest);
+        });
+        JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(table), viewer.getComponent());
+        split.setResizeWeight(0.5);
+
+        JPanel status = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        labelStatus = new JLabel();
+        status.add(labelStatus);
+
+        container.add(filters, BorderLayout.NORTH);
+        container.add(split, BorderLayout.CENTER);
+        container.add(status, BorderLayout.SOUTH);
+
+        // Refresh index statistics
+        statsTimer = new Timer(STATS_INTERVAL, e -> {
+            if (container.isShowing())
+                updateStats();
+        });
+        statsTimer.start();
+        updateStats();
+    }
+
+    public Component getUiComponent() {
+        return container;
+    }
+
+    public void shutdown() {
+        enabled = false;
+        statsTimer.stop();
+        generation.incrementAndGet();
+        searcher.shutdownNow();
+        pool.shutdownNow();
+        indexer.shutdownNow();
+
+        // Segment files are deleted once the indexer is done with them
+        try {
+            indexer.awaitTermination(SHUTDOWN_MILLIS, TimeUnit.MILLISECONDS);
+            index.close();
+        } catch (InterruptedException | IOException e) {
+            callbacks.printError("JQ index: " + e.getMessage());
+        }
+    }
+
+    private void updateStats() {
+        labelIndex.setText(String.format("%d messages indexed, %d segments, %.1f MB on disk, %.1f MB buffered, %d queued, %d dropped, %d skipped",
+            index.getDocuments(), index.getSegments(), index.getDiskBytes() / 1048576.0, index.getBufferBytes() / 1048576.0,
+            queued.get(), dropped.get(), skipped.get()));
+    }
+
+    // Proxy threads only queue messages, parsing and indexing happen on the indexer thread
+    @Override
+    public void processHttpMessage(int toolFlag, boolean messageIsRequest, IHttpRequestResponse messageInfo) {
+
+        if (!enabled || messageIsRequest || toolFlag != IBurpExtenderCallbacks.TOOL_PROXY)
+            return;
+        if (queued.incrementAndGet() > QUEUE_MAX_MESSAGES) {
+            queued.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        indexer.execute(() -> {
+            queued.decrementAndGet();
+            add(messageInfo);
+        });
+    }
+
+    // Index the JSON request and response bodies of a message, saving it only if one of them is indexed
+    private void add(IHttpRequestResponse item) {
+
+        IHttpRequestResponsePersisted persisted = null;
+        for (boolean isRequest : new boolean[] { true, false }) {
+            byte[] content = isRequest ? item.getRequest() : item.getResponse();
+            ContentSniffer sniffed = content == null ? null : ContentSniffer.sniff(content);
+            if (sniffed == null || !sniffed.isJson())
+                continue;
+            List<JsonNode> records;
+            try {
+                records = readRecords(content, sniffed);
+            } catch (IOException e) {
+                skipped.incrementAndGet();
+                continue;
+            }
+            if (persisted == null)
+                persisted = callbacks.saveBuffersToTempFiles(item);
+            int id = refs.size();
+            refs.add(new Ref(persisted, isRequest));
+            try {
+                index.add(id, records);
+            } catch (IOException e) {
+                callbacks.printError("JQ index: " + e.getMessage());
+            }
+        }
+    }
+
+    // Same parsing as the editor tab
+    private static List<JsonNode> readRecords(byte[] content, ContentSniffer sniffed) throws IOException {
+        return BurpExtender.readRecords(content, sniffed.jsonStart, sniffed.jsonEnd, sniffed.charset);
+    }
+
+    private void clear() {
+        refs.clear();
+        skipped.set(0);
+        try {
+            index.clear();
+        } catch (IOException e) {
+            callbacks.printError("JQ index: " + e.getMessage());
+        }
+    }
+
+    // Index again the whole Proxy history, from scratch
+    private void rebuild() {
+        matches.update(new ArrayList<Row>());
+        IHttpRequestResponse[] history = callbacks.getProxyHistory();
+        indexer.execute(() -> {
+            clear();
+            for (IHttpRequestResponse item : history) {
+                if (Thread.currentThread().isInterrupted())
+                    return;
+                add(item);
+            }
+        });
+    }
+
+    // Intersect postings of all terms, then verify candidates in parallel with the JQ predicate
+    private void search() {
+
+        Query query;
+        JsonQuery jq;
+        try {
+            query = new Query(queryBar.getText());
+            jq = checkBoxVerify.isSelected() ? queryCache.compile(query.getPredicate(), jqVersion) : null;
+        } catch (JsonQueryException e) {
+            labelStatus.setText(e.getMessage());
+            return;
+        }
+
+        long current = generation.incrementAndGet();
+        labelStatus.setText("Searching...");
+        searcher.execute(() -> {
+            try {
+                long start = System.nanoTime();
+                int[] candidates = null;
+                for (String term : query.getTerms()) {
+                    int[] ids = index.lookup(term);
+                    candidates = candidates == null ? ids : TrafficIndex.intersect(candidates, ids);
+                }
+                long lookupNanos = System.nanoTime() - start;
+                int total = candidates.length;
+                int[] limited = Arrays.copyOf(candidates, Math.min(total, QUERY_MAX_RESULTS));
+
+                start = System.nanoTime();
+                List<Row> rows = pool.submit(() -> Arrays.stream(limited).parallel()
+                    .mapToObj(id -> verify(id, jq, current))
+                    .filter(row -> row != null)
+                    .collect(Collectors.toList())).get();
+                long verifyNanos = System.nanoTime() - start;
+
+                String status = String.format("%d candidates in %.1f ms%s", total, lookupNanos / 1e6,
+                    total > limited.length ? ", first " + limited.length + " kept" : "");
+                if (jq != null)
+                    status += String.format(", %d verified in %.1f ms: %s", rows.size(), verifyNanos / 1e6, query.getPredicate());
+                publish(current, rows, status);
+            } catch (Exception e) {
+                publish(current, null, e.getMessage());
+            }
+        });
+    }
+
+    // Row of a candidate holding the predicate, or of any candidate if there is none
+    private Row verify(int id, JsonQuery jq, long current) {
+
+        if (generation.get() != current)
+            return null;
+        Ref ref = refs.get(id);
+        if (jq != null) {
+            byte[] content = ref.isRequest ? ref.message.getRequest() : ref.message.getResponse();
+            try {
+                boolean[] holds = new boolean[1];
+                for (JsonNode record : readRecords(content, ContentSniffer.sniff(content))) {
+                    jq.apply(builtins.get(), record, (out) -> {
+                        if (generation.get() != current)
+                            throw new JsonQueryException(CANCELLED);
+                        holds[0] |= out.asBoolean();
+                    });
+                }
+                if (!holds[0])
+                    return null;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        IRequestInfo requestInfo = helpers.analyzeRequest(ref.message);
+        short status = ref.message.getResponse() == null ? 0 : helpers.analyzeResponse(ref.message.getResponse()).getStatusCode();
+        return new Row(id, ref, requestInfo.getMethod(), String.valueOf(requestInfo.getUrl()), status);
+    }
+
+    private void publish(long current, List<Row> rows, String status) {
+        SwingUtilities.invokeLater(() -> {
+            if (generation.get() != current)
+                return;
+            if (rows != null)
+                matches.update(rows);
+            labelStatus.setText(status);
+        });
+    }
+
+    @Override
+    public IHttpService getHttpService() {
+        return selected == null ? null : selected.message.getHttpService();
+    }
+
+    @Override
+    public byte[] getRequest() {
+        return selected == null ? null : selected.message.getRequest();
+    }
+
+    @Override
+    public byte[] getResponse() {
+        return selected == null ? null : selected.message.getResponse();
+    }
+}
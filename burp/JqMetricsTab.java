@@ -0,0 +1,174 @@
+package burp;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.FlowLayout;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.JButton;
+import javax.swing.JFileChooser;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.Timer;
+
+
+// Suite tab panel showing the distribution of editor tab timings, exportable for offline analysis, and query cache counters
+public class JqMetricsTab {
+
+    private static final int REFRESH_INTERVAL = 1000;
+
+    private final IBurpExtenderCallbacks callbacks;
+    private final Metrics metrics;
+    private final JqCache queryCache;
+    private final SummaryModel model = new SummaryModel();
+    private JPanel container = new JPanel(new BorderLayout());
+    private JLabel labelCache;
+    private JLabel labelStatus;
+    private Timer refreshTimer;
+
+    private static class SummaryModel extends AbstractTableModel {
+
+        private static final long serialVersionUID = -4406217329052874413L;
+        private static final String[] columns = { "Phase", "Runs", "Mean (ms)", "p50 (ms)", "p90 (ms)", "p99 (ms)", "Max (ms)",
+            "< 1 ms", "1-10 ms", "10-100 ms", "100 ms-1 s", ">= 1 s" };
+        private List<Metrics.Summary> summaries = new ArrayList<Metrics.Summary>();
+
+        private void update(List<Metrics.Summary> updated) {
+            summaries = updated;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return summaries.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columns[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            if (column == 0)
+                return String.class;
+            if (column == 1 || column >= 7)
+                return Integer.class;
+            return Double.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            Metrics.Summary summary = summaries.get(row);
+            switch (column) {
+                case 0: return summary.phase.getLabel();
+                case 1: return summary.runs;
+                case 2: return round(summary.mean);
+                case 3: return round(summary.p50);
+                case 4: return round(summary.p90);
+                case 5: return round(summary.p99);
+                case 6: return round(summary.max);
+                default: return summary.histogram[column - 7];
+            }
+        }
+
+        private static double round(double millis) {
+            return Math.round(millis * 100) / 100.0;
+        }
+    }
+
+    public JqMetricsTab(IBurpExtenderCallbacks callbacks, Metrics metrics, JqCache queryCache) {
+
+        this.callbacks = callbacks;
+        this.metrics = metrics;
+        this.queryCache = queryCache;
+
+        /*
+         *  JPanel container
+         *    BorderLayout
+         *      NORTH
+         *      | JPanel buttons
+         *      |   FlowLayout LEFT
+         *      |     JButton buttonCsv, buttonJson, buttonClear
+         *      |     JLabel labelCache, labelStatus
+         *      CENTER
+         *        JTable table
+         */
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton buttonCsv = new JButton("Export CSV");
+        buttonCsv.addActionListener(e -> export("jq-metrics.csv", metrics.toCsv()));
+        JButton buttonJson = new JButton("Export JSON");
+        buttonJson.addActionListener(e -> export("jq-metrics.json", metrics.toJson()));
+        JButton buttonClear = new JButton("Clear");
+        buttonClear.addActionListener(e -> {
+            metrics.clear();
+            refresh();
+        });
+        labelCache = new JLabel();
+        labelStatus = new JLabel();
+        buttons.add(buttonCsv);
+        buttons.add(buttonJson);
+        buttons.add(buttonClear);
+        buttons.add(labelCache);
+        buttons.add(labelStatus);
+
+        JTable table = new JTable(model);
+        table.getColumnModel().getColumn(0).setPreferredWidth(100);
+
+        container.add(buttons, BorderLayout.NORTH);
+        container.add(new JScrollPane(table), BorderLayout.CENTER);
+
+        // Summaries and cache counters are only refreshed while displayed
+        refreshTimer = new Timer(REFRESH_INTERVAL, e -> {
+            if (container.isShowing())
+                refresh();
+        });
+        refreshTimer.start();
+        refresh();
+    }
+
+    public Component getUiComponent() {
+        return container;
+    }
+
+    public void shutdown() {
+        refreshTimer.stop();
+    }
+
+    // Cache counters cover all lookups since loading, from every tab, rule and check
+    private void refresh() {
+        model.update(metrics.getSummaries());
+        long hits = queryCache.getHits();
+        long misses = queryCache.getMisses();
+        long lookups = hits + misses;
+        labelCache.setText(String.format("Query cache: %d hits, %d misses (%.1f%% hit rate)",
+            hits, misses, lookups == 0 ? 0.0 : 100.0 * hits / lookups));
+    }
+
+    private void export(String name, String content) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File(name));
+        if (chooser.showSaveDialog(container) != JFileChooser.APPROVE_OPTION)
+            return;
+        try {
+            Files.write(chooser.getSelectedFile().toPath(), content.getBytes(StandardCharsets.UTF_8));
+            labelStatus.setText("Exported to " + chooser.getSelectedFile());
+        } catch (IOException e) {
+            labelStatus.setText(e.getMessage());
+            callbacks.printError("Metrics export: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package burp;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.FlowLayout;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import javax.swing.DefaultCellEditor;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.Timer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import net.thisptr.jackson.jq.exception.JsonQueryException;
+import net.thisptr.jackson.jq.JsonQuery;
+import net.thisptr.jackson.jq.Version;
+
+
+// Match and replace rules rewriting in-flight JSON bodies with JQ filters, e.g. .user.role = "admin"
+public class JqRules implements IHttpListener {
+
+    private static final String[] TARGETS = { "Requests", "Responses" };
+    private static final String[] TOOLS = { "Proxy", "All tools" };
+    private static final int STATS_INTERVAL = 1000;
+    private static final String SEVERAL_OUTPUTS = "A rewrite must produce a single value";
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final IBurpExtenderCallbacks callbacks;
+    private final IExtensionHelpers helpers;
+    private final JqCache queryCache;
+    private final Builtins builtins;
+    private final Version jqVersion;
+    private final int evaluationMaxMillis;
+    private final List<Rule> rules = new ArrayList<Rule>();
+    private final RulesModel model = new RulesModel();
+    private JPanel container = new JPanel(new BorderLayout());
+    private Timer statsTimer;
+
+    // Enabled rules, compiled and replaced as a whole on any change so proxy threads never lock
+    private volatile CompiledRule[] active = new CompiledRule[0];
+
+    // Row of the rules table, only read and edited from the event thread
+    private static class Rule {
+
+        private boolean enabled = true;
+        private boolean isRequest = true;
+        private boolean proxyOnly = true;
+        private String url = "";
+        private String filters = ".";
+        private CompiledRule compiled;
+        private String error = "";
+        private final Stats stats = new Stats();
+    }
+
+    // Rule as published to proxy threads, never modified, a new one is compiled on each edit
+    private static class CompiledRule {
+
+        private final boolean isRequest;
+        private final boolean proxyOnly;
+        private final String filters;
+        private final Pattern pattern;
+        private final JsonQuery jq;
+        private final Stats stats;
+
+        private CompiledRule(Rule rule, Pattern pattern, JsonQuery jq) {
+            this.isRequest = rule.isRequest;
+            this.proxyOnly = rule.proxyOnly;
+            this.filters = rule.filters;
+            this.pattern = pattern;
+            this.jq = jq;
+            this.stats = rule.stats;
+        }
+    }
+
+    // Counters of a rule, updated by proxy threads and kept across edits
+    private static class Stats {
+
+        private final AtomicLong applied = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private void record(long elapsed) {
+            nanos.addAndGet(elapsed);
+            maxNanos.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+
+    private class RulesModel extends AbstractTableModel {
+
+        private static final long serialVersionUID = -6401883713406273425L;
+        private final String[] columns = { "Enabled", "Tools", "Target", "URL regex", "Filter", "Applied", "Failed", "Avg (us)", "Max (us)", "Status" };
+
+        @Override
+        public int getRowCount() {
+            return rules.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return columns[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            if (column == 0)
+                return Boolean.class;
+            if (column >= 5 && column <= 8)
+                return Long.class;
+            return String.class;
+        }
+
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return column <= 4;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            Rule rule = rules.get(row);
+            Stats stats = rule.stats;
+            long runs = stats.applied.get() + stats.failed.get();
+            switch (column) {
+                case 0: return rule.enabled;
+                case 1: return rule.proxyOnly ? TOOLS[0] : TOOLS[1];
+                case 2: return rule.isRequest ? TARGETS[0] : TARGETS[1];
+                case 3: return rule.url;
+                case 4: return rule.filters;
+                case 5: return stats.applied.get();
+                case 6: return stats.failed.get();
+                case 7: return runs == 0 ? 0 : stats.nanos.get() / runs / 1000;
+                case 8: return stats.maxNanos.get() / 1000;
+                default: return rule.error;
+            }
+        }
+
+        @Override
+        public void setValueAt(Object value, int row, int column) {
+            Rule rule = rules.get(row);
+            switch (column) {
+                case 0: rule.enabled = (Boolean) value; break;
+                case 1: rule.proxyOnly = TOOLS[0].equals(value); break;
+                case 2: rule.isRequest = TARGETS[0].equals(value); break;
+                case 3: rule.url = ((String) value).trim(); break;
+                case 4: rule.filters = ((String) value).trim(); break;
+            }
+            compile(rule);
+            update();
+            fireTableRowsUpdated(row, row);
+        }
+    }
+
+    public JqRules(IBurpExtenderCallbacks callbacks, JqCache queryCache, Builtins builtins, Version jqVersion, int evaluationMaxMillis) {
+
+        this.callbacks = callbacks;
+        this.helpers = callbacks.getHelpers();
+        this.queryCache = queryCache;
+        this.builtins = builtins;
+        this.jqVersion = jqVersion;
+        this.evaluationMaxMillis = evaluationMaxMillis;
+
+        /*
+         *  JPanel container
+         *    BorderLayout
+         *      NORTH
+         *      | JPanel buttons
+         *      |   FlowLayout LEFT
+         *      |     JButton buttonAdd, buttonRemove
+         *      CENTER
+         *        JTable table
+         */
+
+        JTable table = new JTable(model);
+        table.getColumnModel().getColumn(1).setCellEditor(new DefaultCellEditor(new JComboBox<String>(TOOLS)));
+        table.getColumnModel().getColumn(2).setCellEditor(new DefaultCellEditor(new JComboBox<String>(TARGETS)));
+        table.getColumnModel().getColumn(3).setPreferredWidth(200);
+        table.getColumnModel().getColumn(4).setPreferredWidth(300);
+        table.getColumnModel().getColumn(9).setPreferredWidth(200);
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton buttonAdd = new JButton("Add");
+        buttonAdd.addActionListener(e -> {
+            Rule rule = new Rule();
+            compile(rule);
+            rules.add(rule);
+            update();
+            model.fireTableRowsInserted(rules.size() - 1, rules.size() - 1);
+        });
+        JButton buttonRemove = new JButton("Remove");
+        buttonRemove.addActionListener(e -> {
+            int row = table.getSelectedRow();
+            if (row < 0)
+                return;
+            if (table.isEditing())
+                table.getCellEditor().cancelCellEditing();
+            rules.remove(row);
+            update();
+            model.fireTableRowsDeleted(row, row);
+        });
+        buttons.add(buttonAdd);
+        buttons.add(buttonRemove);
+
+        container.add(buttons, BorderLayout.NORTH);
+        container.add(new JScrollPane(table), BorderLayout.CENTER);
+
+        // Refresh latency statistics
+        statsTimer = new Timer(STATS_INTERVAL, e -> {
+            if (!rules.isEmpty() && container.isShowing() && !table.isEditing())
+                model.fireTableRowsUpdated(0, rules.size() - 1);
+        });
+        statsTimer.start();
+
+        load();
+    }
+
+    public Component getUiComponent() {
+        return container;
+    }
+
+    // Filters of enabled rules, to warm up
+    public List<String> getFilters() {
+        List<String> filters = new ArrayList<String>();
+        for (CompiledRule rule : active)
+            filters.add(rule.filters);
+        return filters;
+    }
+
+    public void shutdown() {
+        statsTimer.stop();
+        active = new CompiledRule[0];
+    }
+
+    // Rules are compiled once, when edited, into a new rule published by update
+    private void compile(Rule rule) {
+        try {
+            Pattern pattern = rule.url.isEmpty() ? null : Pattern.compile(rule.url);
+            JsonQuery jq = queryCache.compile(rule.filters.isEmpty() ? "." : rule.filters, jqVersion);
+            rule.compiled = new CompiledRule(rule, pattern, jq);
+            rule.error = "";
+        } catch (PatternSyntaxException | JsonQueryException e) {
+            rule.compiled = null;
+            rule.error = e.getMessage();
+        }
+    }
+
+    // Publish enabled rules to the listener and save them
+    private void update() {
+        List<CompiledRule> enabled = new ArrayList<CompiledRule>();
+        for (Rule rule : rules)
+            if (rule.enabled && rule.compiled != null)
+                enabled.add(rule.compiled);
+        active = enabled.toArray(new CompiledRule[0]);
+        save();
+    }
+
+    private void save() {
+        ArrayNode array = mapper.createArrayNode();
+        for (Rule rule : rules) {
+            ObjectNode object = array.addObject();
+            object.put("enabled", rule.enabled);
+            object.put("isRequest", rule.isRequest);
+            object.put("proxyOnly", rule.proxyOnly);
+            object.put("url", rule.url);
+            object.put("filters", rule.filters);
+        }
+        callbacks.saveExtensionSetting("rules", array.toString());
+    }
+
+    private void load() {
+        String setting = callbacks.loadExtensionSetting("rules");
+        if (setting == null)
+            return;
+        try {
+            for (JsonNode object : mapper.readTree(setting)) {
+                Rule rule = new Rule();
+                rule.enabled = object.path("enabled").asBoolean(true);
+                rule.isRequest = object.path("isRequest").asBoolean(true);
+                rule.proxyOnly = object.path("proxyOnly").asBoolean(true);
+                rule.url = object.path("url").asText("");
+                rule.filters = object.path("filters").asText(".");
+                compile(rule);
+                rules.add(rule);
+            }
+        } catch (IOException e) {
+            callbacks.printError("Invalid rules setting: " + e.getMessage());
+        }
+        update();
+    }
+
+    @Override
+    public void processHttpMessage(int toolFlag, boolean messageIsRequest, IHttpRequestResponse messageInfo) {
+
+        CompiledRule[] rules = active;
+        if (rules.length == 0)
+            return;
+
+        // Rules for this message, checked without parsing anything
+        List<CompiledRule> matching = new ArrayList<CompiledRule>(rules.length);
+        for (CompiledRule rule : rules)
+            if (rule.isRequest == messageIsRequest && (!rule.proxyOnly || toolFlag == IBurpExtenderCallbacks.TOOL_PROXY))
+                matching.add(rule);
+        if (matching.isEmpty())
+            return;
+
+        byte[] content = messageIsRequest ? messageInfo.getRequest() : messageInfo.getResponse();
+        ContentSniffer sniffed = content == null ? null : ContentSniffer.sniff(content);
+        if (sniffed == null || !sniffed.isJson())
+            return;
+
+        URL url = null;
+        List<JsonNode> records = null;
+        boolean modified = false;
+
+        for (CompiledRule rule : matching) {
+
+            // URL is only analyzed when a rule needs it
+            if (rule.pattern != null) {
+                if (url == null)
+                    url = helpers.analyzeRequest(messageInfo).getUrl();
+                if (!rule.pattern.matcher(url.toString()).find())
+                    continue;
+            }
+
+            // Runaway rules are interrupted, waiting for builtins included, and never escape to Burp
+            long start = System.nanoTime();
+            Deadline deadline = new Deadline(evaluationMaxMillis);
+            List<JsonNode> rewritten;
+            try {
+                if (records == null)
+                    records = BurpExtender.readRecords(content, sniffed.jsonStart, sniffed.jsonEnd, sniffed.charset);
+
+                // A rewrite must produce exactly one value for each record, NDJSON records are rewritten one by one
+                rewritten = rewrite(rule, records);
+            } catch (IOException | RuntimeException | StackOverflowError | OutOfMemoryError e) {
+                rewritten = null;
+            }
+
+            // Out of time fails the rule, even if a try in filters caught the interruption
+            if (deadline.stop())
+                rewritten = null;
+            if (rewritten != null) {
+                records = rewritten;
+                modified = true;
+                rule.stats.applied.incrementAndGet();
+            } else {
+                rule.stats.failed.incrementAndGet();
+            }
+            rule.stats.record(System.nanoTime() - start);
+        }
+
+        if (!modified)
+            return;
+
+        // Rebuild message around the same JSONP callback if any, one record per line, Burp updates Content-Length
+        try {
+            byte[] message = helpers.buildHttpMessage(sniffed.getHeaders(), sniffed.wrap(BurpExtender.writeRecords(records, sniffed.charset)));
+            if (messageIsRequest)
+                messageInfo.setRequest(message);
+            else
+                messageInfo.setResponse(message);
+        } catch (IOException e) {
+            callbacks.printError("JQ rule: " + e.getMessage());
+        }
+    }
+
+    // Single output of rule for each record, null if any record has none, stopping on a second one
+    private List<JsonNode> rewrite(CompiledRule rule, List<JsonNode> records) throws IOException {
+        List<JsonNode> rewritten = new ArrayList<JsonNode>(records.size());
+        for (JsonNode record : records) {
+            List<JsonNode> outputs = new ArrayList<JsonNode>(1);
+            rule.jq.apply(builtins.get(), record, (out) -> {
+                if (!outputs.isEmpty())
+                    throw new JsonQueryException(SEVERAL_OUTPUTS);
+                outputs.add(out);
+            });
+            if (outputs.isEmpty())
+                return null;
+            rewritten.add(outputs.get(0));
+        }
+        return rewritten;
+    }
+}
@@ -0,0 +1,224 @@
+package burp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+
+// Structural diff of JSON trees, as a list of changes addressed by jq paths, e.g. {"op":"changed","path":".user.role",...}
+// Subtrees are hashed once bottom up, so identical subtrees are skipped in constant time and near identical documents diff in linear time
+// Object keys are unordered like in jq, array elements are aligned on common prefix, suffix and hashes
+public class JsonDiff {
+
+    private static final JsonNodeFactory factory = JsonNodeFactory.instance;
+    private static final long NULL = 0x7a3c5e1f9b2d4c68L;
+    private static final long TRUE = 0x1b873593cc9e2d51L;
+    private static final long FALSE = 0x5c3f2a9e8d7b6c41L;
+    private static final long ARRAY = 0x2545f4914f6cdd1dL;
+    private static final long OBJECT = 0x9e3779b97f4a7c15L;
+
+    private final IdentityHashMap<JsonNode, Long> hashes = new IdentityHashMap<JsonNode, Long>();
+    private final List<JsonNode> changes = new ArrayList<JsonNode>();
+
+    private JsonDiff() {
+    }
+
+    // Changes turning the results from into the results to, diffed as arrays unless both are single results
+    public static List<JsonNode> diff(List<JsonNode> from, List<JsonNode> to) {
+        JsonDiff diff = new JsonDiff();
+        if (from.size() == 1 && to.size() == 1)
+            diff.diff(from.get(0), to.get(0), "");
+        else
+            diff.diffArrays(from, to, "");
+        return diff.changes;
+    }
+
+    private void diff(JsonNode from, JsonNode to, String path) {
+
+        if (hash(from) == hash(to))
+            return;
+
+        if (from.isObject() && to.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> fields = from.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                JsonNode other = to.get(field.getKey());
+                if (other == null)
+                    removed(key(path, field.getKey()), field.getValue());
+                else
+                    diff(field.getValue(), other, key(path, field.getKey()));
+            }
+            fields = to.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (!from.has(field.getKey()))
+                    added(key(path, field.getKey()), field.getValue());
+            }
+
+        } else if (from.isArray() && to.isArray()) {
+            List<JsonNode> fromElements = new ArrayList<JsonNode>(from.size());
+            from.forEach(fromElements::add);
+            List<JsonNode> toElements = new ArrayList<JsonNode>(to.size());
+            to.forEach(toElements::add);
+            diffArrays(fromElements, toElements, path);
+
+        } else {
+            ObjectNode change = change("changed", path);
+            change.set("from", from);
+            change.set("to", to);
+        }
+    }
+
+    // Skip the common prefix and suffix, then walk both middles: equal elements are kept,
+    // an element found later on the other side means insertions or deletions until there, others changed in place
+    private void diffArrays(List<JsonNode> from, List<JsonNode> to, String path) {
+
+        int start = 0;
+        while (start < from.size() && start < to.size() && hash(from.get(start)) == hash(to.get(start)))
+            start++;
+        int fromEnd = from.size();
+        int toEnd = to.size();
+        while (fromEnd > start && toEnd > start && hash(from.get(fromEnd - 1)) == hash(to.get(toEnd - 1))) {
+            fromEnd--;
+            toEnd--;
+        }
+
+        Occurrences fromOccurrences = new Occurrences(from, start, fromEnd);
+        Occurrences toOccurrences = new Occurrences(to, start, toEnd);
+        int i = start;
+        int j = start;
+        while (i < fromEnd && j < toEnd) {
+            long fromHash = hash(from.get(i));
+            long toHash = hash(to.get(j));
+            if (fromHash == toHash) {
+                i++;
+                j++;
+                continue;
+            }
+            boolean fromLater = toOccurrences.next(fromHash, j) >= 0;
+            boolean toLater = fromOccurrences.next(toHash, i) >= 0;
+            if (toLater && !fromLater) {
+                removed(index(path, i), from.get(i));
+                i++;
+            } else if (fromLater && !toLater) {
+                added(index(path, j), to.get(j));
+                j++;
+            } else {
+                diff(from.get(i), to.get(j), index(path, j));
+                i++;
+                j++;
+            }
+        }
+        for (; i < fromEnd; i++)
+            removed(index(path, i), from.get(i));
+        for (; j < toEnd; j++)
+            added(index(path, j), to.get(j));
+    }
+
+    // Positions of each hash in a range, consumed in order so that lookups stay amortized constant
+    private class Occurrences {
+
+        private final HashMap<Long, ArrayDeque<Integer>> positions = new HashMap<Long, ArrayDeque<Integer>>();
+
+        private Occurrences(List<JsonNode> elements, int start, int end) {
+            for (int i = start; i < end; i++)
+                positions.computeIfAbsent(hash(elements.get(i)), h -> new ArrayDeque<Integer>()).add(i);
+        }
+
+        // First position of hash at or after from, -1 if none
+        private int next(long hash, int from) {
+            ArrayDeque<Integer> queue = positions.get(hash);
+            if (queue == null)
+                return -1;
+            while (!queue.isEmpty() && queue.peek() < from)
+                queue.poll();
+            return queue.isEmpty() ? -1 : queue.peek();
+        }
+    }
+
+    private void added(String path, JsonNode value) {
+        change("added", path).set("value", value);
+    }
+
+    private void removed(String path, JsonNode value) {
+        change("removed", path).set("value", value);
+    }
+
+    private ObjectNode change(String op, String path) {
+        ObjectNode change = factory.objectNode();
+        change.put("op", op);
+        change.put("path", path.isEmpty() ? "." : path);
+        changes.add(change);
+        return change;
+    }
+
+    // jq path of a key, e.g. .user or .["content-type"]
+    private static String key(String path, String key) {
+        if (key.matches("[A-Za-z_][A-Za-z0-9_]*"))
+            return path + "." + key;
+        return (path.isEmpty() ? "." : path) + "[" + factory.textNode(key) + "]";
+    }
+
+    private static String index(String path, int index) {
+        return (path.isEmpty() ? "." : path) + "[" + index + "]";
+    }
+
+    // Hash of a subtree, computed once for containers: numbers by value like jq, objects regardless of key order
+    private long hash(JsonNode node) {
+
+        Long cached = node.isContainerNode() ? hashes.get(node) : null;
+        if (cached != null)
+            return cached;
+
+        long hash;
+        if (node.isObject()) {
+            hash = OBJECT;
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                hash += mix(hash(field.getKey()) * 31 + hash(field.getValue()));
+            }
+        } else if (node.isArray()) {
+            hash = ARRAY;
+            for (JsonNode element : node)
+                hash = mix(hash * 31 + hash(element));
+        } else if (node.isNumber()) {
+            double value = node.doubleValue();
+            hash = Double.doubleToLongBits(value == 0 ? 0.0 : value);
+        } else if (node.isTextual()) {
+            hash = hash(node.textValue());
+        } else if (node.isBoolean()) {
+            hash = node.booleanValue() ? TRUE : FALSE;
+        } else {
+            hash = NULL;
+        }
+        hash = mix(hash ^ node.getNodeType().ordinal());
+        if (node.isContainerNode())
+            hashes.put(node, hash);
+        return hash;
+    }
+
+    private static long hash(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
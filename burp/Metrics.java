@@ -0,0 +1,214 @@
+package burp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+
+// Timings of the last editor tab runs, from parsing the message to displaying the output
+public class Metrics {
+
+    public static enum Phase {
+        PARSE("Parse"),
+        KEYS("Keys"),
+        COMPILE("Compile"),
+        EVALUATE("Evaluate"),
+        DIFF("Diff"),
+        RENDER("Render"),
+        DISPLAY("Display");
+
+        private final String label;
+
+        private Phase(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    // Upper bounds of histogram buckets, in milliseconds
+    public static final long[] BUCKETS = { 1, 10, 100, 1000 };
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final int capacity;
+    private final ArrayDeque<Run> runs = new ArrayDeque<Run>();
+
+    // One message load and/or evaluation, phases not run are left to -1
+    public static class Run {
+
+        public final long timestamp = System.currentTimeMillis();
+        public final long[] nanos = new long[Phase.values().length];
+        public boolean isRequest;
+        public String filters = "";
+        public long bytes;
+        public int records;
+        public int nodes;
+        public long results;
+        public boolean cached;
+
+        public Run() {
+            Arrays.fill(nanos, -1);
+        }
+
+        // Another evaluation of the same message
+        public Run next() {
+            Run run = new Run();
+            run.isRequest = isRequest;
+            run.bytes = bytes;
+            run.records = records;
+            run.nodes = nodes;
+            run.cached = cached;
+            return run;
+        }
+
+        public void set(Phase phase, long elapsed) {
+            nanos[phase.ordinal()] = elapsed;
+        }
+
+        public long get(Phase phase) {
+            return nanos[phase.ordinal()];
+        }
+
+        // One line summary, e.g. for a status bar
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Phase phase : Phase.values()) {
+                if (get(phase) < 0)
+                    continue;
+                sb.append(phase.getLabel()).append(String.format(" %.1f ms", get(phase) / 1e6)).append(" | ");
+            }
+            sb.append(String.format("%.1f kB", bytes / 1024.0));
+            if (records > 1)
+                sb.append(", ").append(records).append(" records");
+            if (nodes > 0)
+                sb.append(", ").append(nodes).append(" nodes");
+            if (cached)
+                sb.append(" (cached)");
+            return sb.append(", ").append(results).append(" results").toString();
+        }
+    }
+
+    // Distribution of a phase over the last runs
+    public static class Summary {
+
+        public final Phase phase;
+        public int runs;
+        public double mean;
+        public double p50;
+        public double p90;
+        public double p99;
+        public double max;
+        public final int[] histogram = new int[BUCKETS.length + 1];
+
+        private Summary(Phase phase) {
+            this.phase = phase;
+        }
+    }
+
+    public Metrics(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public synchronized void add(Run run) {
+        if (runs.size() == capacity)
+            runs.poll();
+        runs.add(run);
+    }
+
+    public synchronized List<Run> getRuns() {
+        return new ArrayList<Run>(runs);
+    }
+
+    public synchronized void clear() {
+        runs.clear();
+    }
+
+    // Percentiles and histogram of each phase, in milliseconds
+    public List<Summary> getSummaries() {
+
+        List<Run> snapshot = getRuns();
+        List<Summary> summaries = new ArrayList<Summary>();
+        for (Phase phase : Phase.values()) {
+            Summary summary = new Summary(phase);
+            long[] values = new long[snapshot.size()];
+            int n = 0;
+            long sum = 0;
+            for (Run run : snapshot) {
+                long elapsed = run.get(phase);
+                if (elapsed < 0)
+                    continue;
+                values[n++] = elapsed;
+                sum += elapsed;
+                int bucket = 0;
+                while (bucket < BUCKETS.length && elapsed >= BUCKETS[bucket] * 1000000)
+                    bucket++;
+                summary.histogram[bucket]++;
+            }
+            Arrays.sort(values, 0, n);
+            summary.runs = n;
+            if (n > 0) {
+                summary.mean = sum / 1e6 / n;
+                summary.p50 = values[(n - 1) / 2] / 1e6;
+                summary.p90 = values[(int) ((n - 1) * 0.9)] / 1e6;
+                summary.p99 = values[(int) ((n - 1) * 0.99)] / 1e6;
+                summary.max = values[n - 1] / 1e6;
+            }
+            summaries.add(summary);
+        }
+        return summaries;
+    }
+
+    // One line per run, durations in milliseconds, empty when the phase did not run
+    public String toCsv() {
+        StringBuilder sb = new StringBuilder("timestamp,target,filters,bytes,records,nodes,results,cached");
+        for (Phase phase : Phase.values())
+            sb.append(',').append(phase.name().toLowerCase()).append("_ms");
+        sb.append('\n');
+        for (Run run : getRuns()) {
+            sb.append(run.timestamp).append(',')
+                .append(run.isRequest ? "request" : "response").append(',')
+                .append('"').append(run.filters.replace("\"", "\"\"")).append("\",")
+                .append(run.bytes).append(',')
+                .append(run.records).append(',')
+                .append(run.nodes).append(',')
+                .append(run.results).append(',')
+                .append(run.cached);
+            for (Phase phase : Phase.values()) {
+                sb.append(',');
+                if (run.get(phase) >= 0)
+                    sb.append(String.format(Locale.ROOT, "%.3f", run.get(phase) / 1e6));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    public String toJson() {
+        ArrayNode array = mapper.createArrayNode();
+        for (Run run : getRuns()) {
+            ObjectNode object = array.addObject();
+            object.put("timestamp", run.timestamp);
+            object.put("target", run.isRequest ? "request" : "response");
+            object.put("filters", run.filters);
+            object.put("bytes", run.bytes);
+            object.put("records", run.records);
+            object.put("nodes", run.nodes);
+            object.put("results", run.results);
+            object.put("cached", run.cached);
+            for (Phase phase : Phase.values())
+                if (run.get(phase) >= 0)
+                    object.put(phase.name().toLowerCase() + "_ms", run.get(phase) / 1e6);
+        }
+        return array.toString();
+    }
+}
@@ -0,0 +1,119 @@
+package burp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import net.thisptr.jackson.jq.exception.JsonQueryException;
+import net.thisptr.jackson.jq.JsonQuery;
+import net.thisptr.jackson.jq.Output;
+import net.thisptr.jackson.jq.Scope;
+
+
+// Apply a JQ query to many inputs (NDJSON records...) in parallel batches, emitting outputs in input order
+public class ParallelQuery {
+
+    private static final int BATCH_SIZE = 256;
+    private static final int IN_FLIGHT = 2 * Runtime.getRuntime().availableProcessors();
+
+    // Workers are interrupted when the evaluation stops, like the evaluation thread itself
+    private static final ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+        Thread thread = new Thread(runnable, "JQ worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Outputs of a batch, and the error that stopped it if any
+    private static class Batch {
+
+        private final List<JsonNode> outputs = new ArrayList<JsonNode>();
+        private JsonQueryException error;
+    }
+
+    // Workers stop on the first output past maxResults across all batches, 0 for no limit, failing with the exceeded message
+    // They also stop on each output once cancelled or interrupted, so that no batch buffers more than the budget
+    public static void apply(JsonQuery jq, Scope scope, List<JsonNode> inputs, long maxResults, String exceeded, Output output)
+            throws JsonQueryException {
+
+        // Small inputs are not worth the hand off
+        if (inputs.size() <= BATCH_SIZE) {
+            for (JsonNode input : inputs)
+                jq.apply(scope, input, output);
+            return;
+        }
+
+        AtomicBoolean cancelled = new AtomicBoolean();
+        AtomicLong collected = new AtomicLong();
+        ArrayDeque<Future<Batch>> batches = new ArrayDeque<Future<Batch>>();
+        int next = 0;
+        try {
+            while (next < inputs.size() || !batches.isEmpty()) {
+
+                // Keep a bounded window of batches running ahead
+                while (next < inputs.size() && batches.size() < IN_FLIGHT) {
+                    List<JsonNode> slice = inputs.subList(next, Math.min(next + BATCH_SIZE, inputs.size()));
+                    batches.add(workers.submit(() -> run(jq, scope, slice, cancelled, collected, maxResults, exceeded)));
+                    next += slice.size();
+                }
+
+                // Emit oldest batch in order
+                Batch batch = join(batches.peek());
+                batches.poll();
+                for (JsonNode out : batch.outputs)
+                    output.emit(out);
+                if (batch.error != null)
+                    throw batch.error;
+            }
+        } finally {
+            cancelled.set(true);
+            for (Future<Batch> batch : batches)
+                batch.cancel(true);
+        }
+    }
+
+    // Wait for a batch, giving up when the evaluation thread is interrupted
+    private static Batch join(Future<Batch> batch) throws JsonQueryException {
+        try {
+            return batch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JsonQueryException(InterruptibleFunction.INTERRUPTED);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw new JsonQueryException(e.getCause());
+        }
+    }
+
+    public static void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private static Batch run(JsonQuery jq, Scope scope, List<JsonNode> inputs, AtomicBoolean cancelled, AtomicLong collected,
+            long maxResults, String exceeded) {
+        Batch batch = new Batch();
+        try {
+            for (JsonNode input : inputs) {
+                if (cancelled.get())
+                    break;
+                jq.apply(scope, input, (out) -> {
+                    if (cancelled.get() || Thread.currentThread().isInterrupted())
+                        throw new JsonQueryException(InterruptibleFunction.INTERRUPTED);
+                    if (maxResults > 0 && collected.incrementAndGet() > maxResults)
+                        throw new JsonQueryException(exceeded);
+                    batch.outputs.add(out);
+                });
+            }
+        } catch (JsonQueryException e) {
+            batch.error = e;
+        }
+        return batch;
+    }
+}
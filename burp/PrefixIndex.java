@@ -0,0 +1,157 @@
+package burp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+
+// Prefix trie of completion words, each node keeping its best ranked completions
+// Lookups are safe from any thread once built, words are only added from the thread using the index
+public class PrefixIndex {
+
+    public static final PrefixIndex EMPTY = new PrefixIndex(Collections.<String, Integer>emptyMap());
+    private static final int CANDIDATES = 16;
+
+    private final Node root = new Node();
+    private int size;
+
+    private static class Node {
+
+        private char[] labels = new char[0];
+        private Node[] children = new Node[0];
+        private String word;
+        private int frequency;
+        private String[] best = new String[0];
+
+        private Node child(char label) {
+            int i = Arrays.binarySearch(labels, label);
+            return i < 0 ? null : children[i];
+        }
+
+        private Node addChild(char label) {
+            int i = Arrays.binarySearch(labels, label);
+            if (i >= 0)
+                return children[i];
+
+            // Keep labels sorted for binary search
+            i = -i - 1;
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            System.arraycopy(labels, i, newLabels, i + 1, labels.length - i);
+            System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+            newLabels[i] = label;
+            newChildren[i] = new Node();
+            labels = newLabels;
+            children = newChildren;
+            return newChildren[i];
+        }
+    }
+
+    // Build index from words and their frequencies, used for ranking
+    public PrefixIndex(Map<String, Integer> frequencies) {
+
+        // Insert words
+        for (String word : frequencies.keySet()) {
+            Node node = root;
+            for (int i = 0; i < word.length(); i++)
+                node = node.addChild(word.charAt(i));
+            node.word = word;
+            node.frequency = frequencies.get(word);
+        }
+
+        // Enumerate nodes breadth first, without recursion
+        List<Node> nodes = new ArrayList<Node>();
+        nodes.add(root);
+        for (int i = 0; i < nodes.size(); i++)
+            nodes.addAll(Arrays.asList(nodes.get(i).children));
+
+        // Rank bottom up, so each node merges the best completions of its children
+        Comparator<String> ranking = (a, b) -> {
+            int byFrequency = Integer.compare(frequencies.get(b), frequencies.get(a));
+            return byFrequency != 0 ? byFrequency : a.compareTo(b);
+        };
+        for (int n = nodes.size() - 1; n >= 0; n--) {
+            Node node = nodes.get(n);
+            List<String> candidates = new ArrayList<String>();
+            if (node.word != null)
+                candidates.add(node.word);
+            for (Node child : node.children)
+                candidates.addAll(Arrays.asList(child.best));
+            candidates.sort(ranking);
+            node.best = candidates.subList(0, Math.min(CANDIDATES, candidates.size())).toArray(new String[0]);
+        }
+        size = frequencies.size();
+    }
+
+    // Insert word, or count it once more, re-ranking the best completions of the nodes on its path only
+    // Other words keep their frequency, so no other node changes, unlike building the index again
+    public void add(String word) {
+        if (this == EMPTY)
+            throw new UnsupportedOperationException("Shared empty index");
+
+        List<Node> path = new ArrayList<Node>(word.length() + 1);
+        Node node = root;
+        path.add(node);
+        for (int i = 0; i < word.length(); i++) {
+            node = node.addChild(word.charAt(i));
+            path.add(node);
+        }
+        if (node.word == null) {
+            node.word = word;
+            size++;
+        }
+        node.frequency++;
+        for (Node ancestor : path)
+            ancestor.best = promote(ancestor.best, word, node.frequency);
+    }
+
+    // Best completions with word moved up to its rank, words ranking below the last candidate are left out
+    private String[] promote(String[] best, String word, int frequency) {
+        List<String> ranked = new ArrayList<String>(best.length + 1);
+        for (String other : best)
+            if (!other.equals(word))
+                ranked.add(other);
+        int i = 0;
+        while (i < ranked.size() && ranksBefore(ranked.get(i), word, frequency))
+            i++;
+        if (i >= CANDIDATES)
+            return best;
+        ranked.add(i, word);
+        return ranked.subList(0, Math.min(CANDIDATES, ranked.size())).toArray(new String[0]);
+    }
+
+    // Same ranking as when building, by frequency then alphabetically
+    private boolean ranksBefore(String other, String word, int frequency) {
+        int otherFrequency = find(other).frequency;
+        return otherFrequency != frequency ? otherFrequency > frequency : other.compareTo(word) < 0;
+    }
+
+    private Node find(String prefix) {
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++)
+            node = node.child(prefix.charAt(i));
+        return node;
+    }
+
+    public boolean contains(String word) {
+        Node node = find(word);
+        return node != null && node.word != null;
+    }
+
+    // Best ranked words starting with prefix, in O(prefix length)
+    public List<String> lookup(String prefix) {
+        Node node = find(prefix);
+        if (node == null)
+            return Collections.emptyList();
+        return Arrays.asList(node.best);
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,177 @@
+package burp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.DefaultIndenter;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+
+// Render JQ results as UTF-8, one result per line, into a buffer bounded to limit bytes
+public class Renderer {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final ObjectWriter writer = mapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+    private static final DefaultPrettyPrinter prettyPrinter = new DefaultPrettyPrinter((String) null);
+
+    static {
+        prettyPrinter.indentArraysWith(DefaultIndenter.SYSTEM_LINEFEED_INSTANCE);
+    }
+
+    private final BoundedBuffer buffer;
+    private final JsonGenerator generator;
+    private final long limit;
+    private final boolean raw;
+    private int count = 0;
+    private int truncated = 0;
+    private boolean isAllNulls = true;
+    private boolean isCut = false;
+    private String stopped;
+
+    // Buffer refusing to grow past limit, so that a single huge result cannot exhaust memory
+    private static class BoundedBuffer extends ByteArrayOutputStream {
+
+        private final long limit;
+
+        private BoundedBuffer(long limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            long room = limit - count;
+            if (len > room) {
+                super.write(b, off, (int) Math.max(0, room));
+                throw new LimitException();
+            }
+            super.write(b, off, len);
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (count >= limit)
+                throw new LimitException();
+            super.write(b);
+        }
+
+        // Past limit
+        private void append(byte[] b) {
+            super.write(b, 0, b.length);
+        }
+    }
+
+    private static class LimitException extends RuntimeException {
+
+        private static final long serialVersionUID = 3312186317526367094L;
+
+        private LimitException() {
+            super(null, null, false, false);
+        }
+    }
+
+    public Renderer(boolean raw, boolean pretty, long limit) throws IOException {
+        this.raw = raw;
+        this.limit = limit;
+        buffer = new BoundedBuffer(limit);
+        generator = createGenerator(buffer, pretty);
+    }
+
+    private static JsonGenerator createGenerator(OutputStream out, boolean pretty) throws IOException {
+        JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        generator.setRootValueSeparator(null);
+        if (pretty)
+            generator.setPrettyPrinter(prettyPrinter.createInstance());
+        return generator;
+    }
+
+    // Serialize all results to out without limit, e.g. to save them to a file
+    public static void writeAll(List<JsonNode> results, boolean raw, boolean pretty, OutputStream out) throws IOException {
+        JsonGenerator generator = createGenerator(out, pretty);
+        for (int i = 0; i < results.size(); i++) {
+            if (i > 0)
+                generator.writeRaw('\n');
+            write(generator, results.get(i), raw);
+        }
+        generator.flush();
+    }
+
+    private static void write(JsonGenerator generator, JsonNode node, boolean raw) throws IOException {
+        if (node.isTextual() && raw)
+            generator.writeRaw(node.asText());
+        else
+            writer.writeValue(generator, node);
+    }
+
+    // Serialize result, or only count it once limit is reached
+    // A result crossing limit is cut there and counted as truncated
+    public void write(JsonNode node) throws IOException {
+
+        if (!node.isNull())
+            isAllNulls = false;
+
+        if (isCut || buffer.size() + generator.getOutputBuffered() >= limit) {
+            truncated++;
+            return;
+        }
+
+        try {
+            if (count > 0)
+                generator.writeRaw('\n');
+            write(generator, node, raw);
+            count++;
+        } catch (LimitException e) {
+            isCut = true;
+            truncated++;
+        } catch (JsonMappingException e) {
+            if (!(e.getCause() instanceof LimitException))
+                throw e;
+            isCut = true;
+            truncated++;
+        }
+    }
+
+    // Number of results rendered
+    public int getCount() {
+        return count;
+    }
+
+    // Number of results not rendered because of limit
+    public int getTruncated() {
+        return truncated;
+    }
+
+    public boolean isAllNulls() {
+        return isAllNulls;
+    }
+
+    // Reason the evaluation stopped before its end, shown after results
+    public void setStopped(String stopped) {
+        this.stopped = stopped;
+    }
+
+    public byte[] toByteArray() throws IOException {
+        if (!isCut) {
+            try {
+                generator.flush();
+            } catch (LimitException e) {
+                isCut = true;
+                count--;
+                truncated++;
+            }
+        }
+        if (truncated > 0)
+            buffer.append(String.format("\n\n... %d more results truncated", truncated).getBytes());
+        if (stopped != null)
+            buffer.append(("\n\n... " + stopped).getBytes());
+        return buffer.toByteArray();
+    }
+}
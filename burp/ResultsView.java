@@ -0,0 +1,225 @@
+package burp;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.datatransfer.StringSelection;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.awt.Toolkit;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.List;
+import javax.swing.JButton;
+import javax.swing.JFileChooser;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollBar;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.text.DefaultCaret;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+
+// Output view rendering one page of results at a time, for outputs too large for the message editor
+// Copy all and save to file serialize every result off the event thread, without going through the view
+public class ResultsView {
+
+    private final IBurpExtenderCallbacks callbacks;
+    private final ExecutorService executor;
+    private final int pageSize;
+    private final long pageMaxBytes;
+    private JPanel container = new JPanel(new BorderLayout());
+    private JTextArea textArea;
+    private JScrollPane scrollPane;
+    private JButton buttonPrevious;
+    private JButton buttonNext;
+    private JLabel labelPage;
+    private JLabel labelStatus;
+    private Content content = new Content(Collections.<JsonNode>emptyList(), true, true, null);
+    private int page;
+
+    // Results to display with their formatting, and the reason the evaluation stopped if it did
+    public static class Content {
+
+        private final List<JsonNode> results;
+        private final boolean raw;
+        private final boolean pretty;
+        private final String stopped;
+
+        public Content(List<JsonNode> results, boolean raw, boolean pretty, String stopped) {
+            this.results = results;
+            this.raw = raw;
+            this.pretty = pretty;
+            this.stopped = stopped;
+        }
+    }
+
+    public ResultsView(IBurpExtenderCallbacks callbacks, ExecutorService executor, int pageSize, long pageMaxBytes) {
+
+        this.callbacks = callbacks;
+        this.executor = executor;
+        this.pageSize = Math.max(1, pageSize);
+        this.pageMaxBytes = pageMaxBytes;
+
+        /*
+         *  JPanel container
+         *    BorderLayout
+         *      NORTH
+         *      | JPanel navigation
+         *      |   FlowLayout LEFT
+         *      |     JButton buttonPrevious, buttonNext
+         *      |     JLabel labelPage
+         *      |     JButton buttonCopy, buttonSave
+         *      |     JLabel labelStatus
+         *      CENTER
+         *        JTextArea textArea
+         */
+
+        JPanel navigation = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        buttonPrevious = new JButton("<");
+        buttonPrevious.setToolTipText("Previous page");
+        buttonPrevious.addActionListener(e -> showPage(page - 1, false));
+        buttonNext = new JButton(">");
+        buttonNext.setToolTipText("Next page");
+        buttonNext.addActionListener(e -> showPage(page + 1, false));
+        labelPage = new JLabel();
+        JButton buttonCopy = new JButton("Copy all");
+        buttonCopy.setToolTipText("Copy every result to the clipboard");
+        buttonCopy.addActionListener(e -> copyAll());
+        JButton buttonSave = new JButton("Save to file");
+        buttonSave.setToolTipText("Stream every result to a file");
+        buttonSave.addActionListener(e -> saveToFile());
+        labelStatus = new JLabel();
+        navigation.add(buttonPrevious);
+        navigation.add(buttonNext);
+        navigation.add(labelPage);
+        navigation.add(buttonCopy);
+        navigation.add(buttonSave);
+        navigation.add(labelStatus);
+
+        textArea = new JTextArea();
+        textArea.setEditable(false);
+        textArea.setFont(new Font("monospaced", Font.PLAIN, 13));
+        ((DefaultCaret) textArea.getCaret()).setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+        scrollPane = new JScrollPane(textArea);
+
+        // Scrolling past either end of a page turns it
+        scrollPane.addMouseWheelListener(e -> {
+            JScrollBar bar = scrollPane.getVerticalScrollBar();
+            if (e.getWheelRotation() > 0 && bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() && page + 1 < getPages())
+                showPage(page + 1, false);
+            else if (e.getWheelRotation() < 0 && bar.getValue() == 0 && page > 0)
+                showPage(page - 1, true);
+        });
+
+        container.add(navigation, BorderLayout.NORTH);
+        container.add(scrollPane, BorderLayout.CENTER);
+    }
+
+    public Component getUiComponent() {
+        return container;
+    }
+
+    // Display first page of results, from the event thread
+    public void setContent(Content content) {
+        this.content = content;
+        labelStatus.setText("");
+        showPage(0, false);
+    }
+
+    // Release results once another output is displayed
+    public void clear() {
+        if (!content.results.isEmpty())
+            setContent(new Content(Collections.<JsonNode>emptyList(), true, true, null));
+    }
+
+    public byte[] getSelectedText() {
+        String selected = textArea.getSelectedText();
+        return selected == null ? null : selected.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private int getPages() {
+        return Math.max(1, (content.results.size() + pageSize - 1) / pageSize);
+    }
+
+    // Serialize the results of page only, the reason evaluation stopped goes after the last one
+    private void showPage(int page, boolean atEnd) {
+
+        this.page = Math.max(0, Math.min(page, getPages() - 1));
+        int from = this.page * pageSize;
+        int to = Math.min(content.results.size(), from + pageSize);
+        String text;
+        try {
+            Renderer output = new Renderer(content.raw, content.pretty, pageMaxBytes);
+            for (JsonNode result : content.results.subList(from, to))
+                output.write(result);
+            if (to == content.results.size())
+                output.setStopped(content.stopped);
+            text = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            text = e.getMessage();
+        }
+        textArea.setText(text);
+        textArea.setCaretPosition(atEnd ? text.length() : 0);
+        SwingUtilities.invokeLater(() -> {
+            JScrollBar bar = scrollPane.getVerticalScrollBar();
+            bar.setValue(atEnd ? bar.getMaximum() : 0);
+        });
+
+        buttonPrevious.setEnabled(this.page > 0);
+        buttonNext.setEnabled(this.page + 1 < getPages());
+        labelPage.setText(content.results.isEmpty() ? "No results"
+            : String.format("Results %d-%d of %d (page %d/%d)", from + 1, to, content.results.size(), this.page + 1, getPages()));
+    }
+
+    // Clipboard content has to be built in memory, but not as editor text
+    private void copyAll() {
+        Content copied = content;
+        labelStatus.setText("Copying...");
+        executor.submit(() -> {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                Renderer.writeAll(copied.results, copied.raw, copied.pretty, out);
+                String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+                SwingUtilities.invokeLater(() -> {
+                    Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(text), null);
+                    labelStatus.setText(String.format("Copied %d results", copied.results.size()));
+                });
+            } catch (IOException | OutOfMemoryError e) {
+                status("Copy all: " + e.getMessage());
+            }
+        });
+    }
+
+    private void saveToFile() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("jq-output.json"));
+        if (chooser.showSaveDialog(container) != JFileChooser.APPROVE_OPTION)
+            return;
+        File file = chooser.getSelectedFile();
+        Content saved = content;
+        labelStatus.setText("Saving...");
+        executor.submit(() -> {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
+                Renderer.writeAll(saved.results, saved.raw, saved.pretty, out);
+                SwingUtilities.invokeLater(() -> labelStatus.setText(String.format("Saved %d results to %s", saved.results.size(), file)));
+            } catch (IOException e) {
+                status("Save to file: " + e.getMessage());
+            }
+        });
+    }
+
+    private void status(String message) {
+        callbacks.printError(message);
+        SwingUtilities.invokeLater(() -> labelStatus.setText(message));
+    }
+}
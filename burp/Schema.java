@@ -0,0 +1,135 @@
+package burp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeType;
+
+
+// Structural summary of a JSON document: child keys, their frequencies and value types for each path
+public class Schema {
+
+    private static final int ARRAY_SAMPLE = 256;
+
+    private final HashMap<String, Integer> keys = new HashMap<String, Integer>();
+    private final HashMap<String, HashMap<String, Integer>> children = new HashMap<String, HashMap<String, Integer>>();
+    private final HashMap<String, EnumSet<JsonNodeType>> types = new HashMap<String, EnumSet<JsonNodeType>>();
+    private int nodes = 0;
+
+    public Schema(JsonNode root, int maxDepth, int maxNodes) {
+        this(Collections.singletonList(root), maxDepth, maxNodes);
+    }
+
+    // Walk documents breadth first, within depth and nodes budgets
+    // Paths are jq paths where any array index is written [], e.g. .data[].attributes
+    public Schema(List<JsonNode> roots, int maxDepth, int maxNodes) {
+
+        ArrayList<JsonNode> level = new ArrayList<JsonNode>();
+        ArrayList<String> levelPaths = new ArrayList<String>();
+        ArrayList<JsonNode> next = new ArrayList<JsonNode>();
+        ArrayList<String> nextPaths = new ArrayList<String>();
+
+        // Records of a NDJSON body are sampled like array elements
+        for (int i = 0; i < roots.size() && nodes < maxNodes; i += Math.max(1, roots.size() / ARRAY_SAMPLE)) {
+            level.add(roots.get(i));
+            levelPaths.add("");
+            nodes++;
+        }
+
+        for (int depth = 0; depth <= maxDepth && !level.isEmpty(); depth++) {
+            for (int n = 0; n < level.size(); n++) {
+                JsonNode node = level.get(n);
+                String path = levelPaths.get(n);
+
+                // Arrays, sampled when large as their elements are usually alike
+                if (node.isArray()) {
+                    String elementPath = path + "[]";
+                    int size = node.size();
+                    int step = Math.max(1, size / ARRAY_SAMPLE);
+                    for (int i = 0; i < size; i += step) {
+                        JsonNode element = node.get(i);
+                        addType(elementPath, element);
+                        if (element.isContainerNode()) {
+                            if (nodes++ >= maxNodes)
+                                return;
+                            next.add(element);
+                            nextPaths.add(elementPath);
+                        }
+                    }
+
+                // Objects
+                } else if (node.isObject()) {
+                    HashMap<String, Integer> fields = children.computeIfAbsent(path, p -> new HashMap<String, Integer>());
+                    Iterator<Map.Entry<String, JsonNode>> entries = node.fields();
+                    while (entries.hasNext()) {
+                        Map.Entry<String, JsonNode> entry = entries.next();
+                        String key = entry.getKey();
+                        String fieldPath = path + "." + key;
+                        keys.merge(key, 1, Integer::sum);
+                        fields.merge(key, 1, Integer::sum);
+                        addType(fieldPath, entry.getValue());
+                        if (entry.getValue().isContainerNode()) {
+                            if (nodes++ >= maxNodes)
+                                return;
+                            next.add(entry.getValue());
+                            nextPaths.add(fieldPath);
+                        }
+                    }
+                }
+            }
+
+            ArrayList<JsonNode> visited = level;
+            level = next;
+            next = visited;
+            next.clear();
+            ArrayList<String> visitedPaths = levelPaths;
+            levelPaths = nextPaths;
+            nextPaths = visitedPaths;
+            nextPaths.clear();
+        }
+    }
+
+    private void addType(String path, JsonNode node) {
+        EnumSet<JsonNodeType> set = types.get(path);
+        if (set == null)
+            types.put(path, EnumSet.of(node.getNodeType()));
+        else
+            set.add(node.getNodeType());
+    }
+
+    // Number of containers walked, bounded by maxNodes
+    public int getNodes() {
+        return nodes;
+    }
+
+    // Keys seen anywhere in the document and their frequencies
+    public Map<String, Integer> getKeys() {
+        return keys;
+    }
+
+    // Keys of objects found at path and their frequencies, null for unknown paths
+    public Map<String, Integer> getChildren(String path) {
+        HashMap<String, Integer> fields = children.get(path);
+        return fields == null ? null : Collections.unmodifiableMap(fields);
+    }
+
+    // Value types found at path, e.g. "array" or "number|null"
+    public String getTypes(String path) {
+        EnumSet<JsonNodeType> set = types.get(path);
+        if (set == null)
+            return "";
+        StringBuilder sb = new StringBuilder();
+        for (JsonNodeType type : set) {
+            if (sb.length() > 0)
+                sb.append("|");
+            sb.append(type == JsonNodeType.POJO ? "object" : type.name().toLowerCase());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,274 @@
+package burp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import net.thisptr.jackson.jq.exception.JsonQueryException;
+import net.thisptr.jackson.jq.JsonQuery;
+import net.thisptr.jackson.jq.Output;
+import net.thisptr.jackson.jq.Scope;
+import net.thisptr.jackson.jq.Version;
+
+
+// Evaluate filters starting with a path, e.g. ".data[] | select(.id == 1)", on a token stream
+// Only values matched by the path are materialized, the rest of the filter is applied to each of them
+public class StreamingQuery {
+
+    private static enum Type {
+        KEY,
+        INDEX,
+        ITERATE
+    };
+
+    private static class Step {
+
+        private final Type type;
+        private final String key;
+        private final int index;
+        private boolean optional = false;
+
+        private Step(Type type, String key, int index) {
+            this.type = type;
+            this.key = key;
+            this.index = index;
+        }
+    }
+
+    private final List<Step> steps;
+    private final JsonQuery remainder;
+
+    private StreamingQuery(List<Step> steps, JsonQuery remainder) {
+        this.steps = steps;
+        this.remainder = remainder;
+    }
+
+    // Split filters into a leading path and the rest, null when filters do not start with a path
+    public static StreamingQuery compile(String filters, Version version, JqCache queryCache) throws JsonQueryException {
+
+        List<Step> steps = new ArrayList<Step>();
+        int start = 0;
+        for (int end : getPipes(filters)) {
+            List<Step> segment = parsePath(filters.substring(start, end).trim());
+            if (segment == null)
+                break;
+            steps.addAll(segment);
+            start = end + 1;
+        }
+        if (steps.isEmpty())
+            return null;
+
+        // Pipe has the lowest precedence, so the rest is applied to each value of the path
+        String rest = start >= filters.length() ? "" : filters.substring(start).trim();
+        return new StreamingQuery(steps, queryCache.compile(rest.isEmpty() ? "." : rest, version));
+    }
+
+    // Positions of top level pipes, followed by the end of filters
+    private static List<Integer> getPipes(String filters) {
+
+        List<Integer> pipes = new ArrayList<Integer>();
+        int depth = 0;
+        boolean string = false;
+        for (int i = 0; i < filters.length(); i++) {
+            char c = filters.charAt(i);
+            if (string) {
+                if (c == '\\')
+                    i++;
+                else if (c == '"')
+                    string = false;
+            } else if (c == '"') {
+                string = true;
+            } else if (c == '(' || c == '[' || c == '{') {
+                depth++;
+            } else if (c == ')' || c == ']' || c == '}') {
+                depth--;
+            } else if (c == '|' && depth == 0 && (i + 1 == filters.length() || filters.charAt(i + 1) != '=')) {
+                pipes.add(i);
+            }
+        }
+        pipes.add(filters.length());
+        return pipes;
+    }
+
+    // Parse a path like .a."b"[]?[0], null if segment is anything else
+    private static List<Step> parsePath(String segment) {
+
+        if (segment.isEmpty() || segment.charAt(0) != '.' || segment.startsWith(".."))
+            return null;
+
+        List<Step> steps = new ArrayList<Step>();
+        int i = 0;
+        while (i < segment.length()) {
+            char c = segment.charAt(i);
+            if (c == '?' && !steps.isEmpty()) {
+                steps.get(steps.size() - 1).optional = true;
+                i++;
+            } else if (c == '.' && i + 1 < segment.length() && segment.charAt(i + 1) == '"') {
+                int end = segment.indexOf('"', i + 2);
+                if (end < 0 || segment.substring(i + 2, end).indexOf('\\') >= 0)
+                    return null;
+                steps.add(new Step(Type.KEY, segment.substring(i + 2, end), 0));
+                i = end + 1;
+            } else if (c == '.') {
+                int end = i + 1;
+                while (end < segment.length() && (Character.isLetter(segment.charAt(end)) || segment.charAt(end) == '_'
+                        || end > i + 1 && Character.isDigit(segment.charAt(end))))
+                    end++;
+                if (end > i + 1)
+                    steps.add(new Step(Type.KEY, segment.substring(i + 1, end), 0));
+                else if (end < segment.length() && segment.charAt(end) != '[')
+                    return null;
+                i = end;
+            } else if (c == '[') {
+                int end = segment.indexOf(']', i);
+                if (end < 0)
+                    return null;
+                String inside = segment.substring(i + 1, end).trim();
+                if (inside.isEmpty())
+                    steps.add(new Step(Type.ITERATE, null, 0));
+                else if (inside.matches("\\d{1,9}"))
+                    steps.add(new Step(Type.INDEX, null, Integer.parseInt(inside)));
+                else if (inside.matches("\"[^\"\\\\]*\""))
+                    steps.add(new Step(Type.KEY, inside.substring(1, inside.length() - 1), 0));
+                else
+                    return null;
+                i = end + 1;
+            } else {
+                return null;
+            }
+        }
+        return steps;
+    }
+
+    // Apply filters to each value the parser is about to read, e.g. NDJSON records
+    public void apply(Scope scope, JsonParser parser, Output output) throws IOException {
+        while (parser.nextToken() != null)
+            walk(scope, parser, 0, output);
+    }
+
+    // Follow steps from the current token, leaving the parser on the last token of the current value
+    private void walk(Scope scope, JsonParser parser, int step, Output output) throws IOException {
+
+        // Path matched, materialize this value only
+        if (step == steps.size()) {
+            JsonNode node = parser.readValueAsTree();
+            remainder.apply(scope, node == null ? NullNode.getInstance() : node, output);
+            return;
+        }
+
+        Step s = steps.get(step);
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL && s.type != Type.ITERATE) {
+            walk(scope, NullNode.getInstance(), step + 1, output);
+            return;
+        }
+
+        switch (s.type) {
+            case KEY:
+                if (token == JsonToken.START_OBJECT) {
+                    boolean found = false;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        boolean match = !found && s.key.equals(parser.getCurrentName());
+                        parser.nextToken();
+                        if (match) {
+                            found = true;
+                            walk(scope, parser, step + 1, output);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    if (!found)
+                        walk(scope, NullNode.getInstance(), step + 1, output);
+                    return;
+                }
+                break;
+
+            case INDEX:
+                if (token == JsonToken.START_ARRAY) {
+                    boolean found = false;
+                    for (int i = 0; parser.nextToken() != JsonToken.END_ARRAY; i++) {
+                        if (i == s.index) {
+                            found = true;
+                            walk(scope, parser, step + 1, output);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    if (!found)
+                        walk(scope, NullNode.getInstance(), step + 1, output);
+                    return;
+                }
+                break;
+
+            case ITERATE:
+                if (token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY)
+                        walk(scope, parser, step + 1, output);
+                    return;
+                }
+                if (token == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        parser.nextToken();
+                        walk(scope, parser, step + 1, output);
+                    }
+                    return;
+                }
+                break;
+        }
+
+        // Type mismatch
+        parser.skipChildren();
+        if (!s.optional)
+            throw new JsonQueryException(error(s, typeOf(token)));
+    }
+
+    // Follow remaining steps on an in-memory value
+    private void walk(Scope scope, JsonNode node, int step, Output output) throws JsonQueryException {
+
+        if (step == steps.size()) {
+            remainder.apply(scope, node, output);
+            return;
+        }
+
+        Step s = steps.get(step);
+        JsonNode next = null;
+        if (s.type == Type.KEY && (node.isObject() || node.isNull()))
+            next = node.isNull() ? node : node.path(s.key);
+        else if (s.type == Type.INDEX && (node.isArray() || node.isNull()))
+            next = node.isNull() ? node : node.path(s.index);
+        else if (s.type == Type.ITERATE && node.isContainerNode()) {
+            for (JsonNode element : node)
+                walk(scope, element, step + 1, output);
+            return;
+        }
+
+        if (next != null)
+            walk(scope, next.isMissingNode() ? NullNode.getInstance() : next, step + 1, output);
+        else if (!s.optional)
+            throw new JsonQueryException(error(s, node.getNodeType().name().toLowerCase()));
+    }
+
+    private static String error(Step s, String type) {
+        if (s.type == Type.ITERATE)
+            return "Cannot iterate over " + type;
+        if (s.type == Type.INDEX)
+            return "Cannot index " + type + " with number";
+        return "Cannot index " + type + " with string \"" + s.key + "\"";
+    }
+
+    private static String typeOf(JsonToken token) {
+        switch (token) {
+            case START_OBJECT: return "object";
+            case START_ARRAY: return "array";
+            case VALUE_STRING: return "string";
+            case VALUE_TRUE:
+            case VALUE_FALSE: return "boolean";
+            case VALUE_NULL: return "null";
+            default: return "number";
+        }
+    }
+}
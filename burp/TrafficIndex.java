@@ -0,0 +1,585 @@
+package burp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+
+// Inverted index of JSON terms to document ids, e.g. a path and one of its scalar values to the messages holding it
+// Terms are buffered in memory up to a budget, then flushed to sorted segment files merged two by two like a binary counter
+// A single thread adds documents, with increasing ids, while any thread can look terms up
+public class TrafficIndex {
+
+    public static final char PATH = 'p';
+    public static final char VALUE = 'v';
+    public static final char KEY = 'k';
+
+    // Terms sharing a prefix are front coded within blocks, whose first terms are kept in memory
+    private static final int BLOCK_TERMS = 64;
+    private static final int MAX_TERM_CHARS = 4096;
+    private static final int MAX_VALUE_CHARS = 256;
+    private static final int TERM_OVERHEAD = 64;
+
+    private final long bufferMaxBytes;
+    private final int maxDepth;
+    private final int maxNodes;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Path directory;
+    private HashMap<String, Postings> buffer = new HashMap<String, Postings>();
+    private volatile long bufferBytes = 0;
+    private volatile List<Segment> segments = new ArrayList<Segment>();
+    private volatile int documents = 0;
+    private int nextSegment = 0;
+
+    // Growable sorted array of ids
+    private static class Postings {
+
+        private int[] ids = new int[2];
+        private int size = 0;
+
+        private void add(int id) {
+            if (size == ids.length)
+                ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+    }
+
+    // Immutable sorted file of terms and their postings, each delta and varint encoded
+    private static class Segment {
+
+        private final Path file;
+        private final FileChannel channel;
+        private final String[] blockTerms;
+        private final long[] blockOffsets;
+        private final long size;
+        private final int level;
+
+        private Segment(Path file, String[] blockTerms, long[] blockOffsets, long size, int level) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.blockTerms = blockTerms;
+            this.blockOffsets = blockOffsets;
+            this.size = size;
+            this.level = level;
+        }
+
+        // Read the one block which may hold term, positional reads are safe from concurrent threads
+        private int[] lookup(String term) throws IOException {
+
+            int block = Arrays.binarySearch(blockTerms, term);
+            if (block < 0)
+                block = -block - 2;
+            if (block < 0)
+                return null;
+
+            long start = blockOffsets[block];
+            long end = block + 1 < blockOffsets.length ? blockOffsets[block + 1] : size;
+            ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+            while (bytes.hasRemaining())
+                if (channel.read(bytes, start + bytes.position()) < 0)
+                    throw new EOFException();
+            bytes.flip();
+
+            SegmentReader reader = new SegmentReader(new ByteBufferInputStream(bytes));
+            while (reader.next()) {
+                int compared = reader.term.compareTo(term);
+                if (compared == 0)
+                    return reader.readPostings();
+                if (compared > 0)
+                    return null;
+                reader.skipPostings();
+            }
+            return null;
+        }
+
+        private void close() throws IOException {
+            channel.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer bytes;
+
+        private ByteBufferInputStream(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            return bytes.hasRemaining() ? bytes.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!bytes.hasRemaining())
+                return -1;
+            len = Math.min(len, bytes.remaining());
+            bytes.get(b, off, len);
+            return len;
+        }
+    }
+
+    // Sequential reader of segment entries, from a whole file or from one block
+    private static class SegmentReader {
+
+        private final DataInputStream in;
+        private byte[] termBytes = new byte[64];
+        private int termLength = 0;
+        private String term;
+        private int postingsBytes;
+
+        private SegmentReader(InputStream in) {
+            this.in = new DataInputStream(in);
+        }
+
+        private boolean next() throws IOException {
+            int shared;
+            try {
+                shared = readVarint(in);
+            } catch (EOFException e) {
+                return false;
+            }
+            int suffix = readVarint(in);
+            if (shared + suffix > termBytes.length)
+                termBytes = Arrays.copyOf(termBytes, Math.max(shared + suffix, termBytes.length * 2));
+            in.readFully(termBytes, shared, suffix);
+            termLength = shared + suffix;
+            term = new String(termBytes, 0, termLength, StandardCharsets.UTF_8);
+            postingsBytes = readVarint(in);
+            return true;
+        }
+
+        private int[] readPostings() throws IOException {
+            int count = readVarint(in);
+            int[] ids = new int[count];
+            int id = 0;
+            for (int i = 0; i < count; i++) {
+                id += readVarint(in);
+                ids[i] = id;
+            }
+            return ids;
+        }
+
+        private void skipPostings() throws IOException {
+            in.skipBytes(postingsBytes);
+        }
+    }
+
+    // Sequential writer of sorted terms, keeping the first term and offset of each block
+    private static class SegmentWriter {
+
+        private final DataOutputStream out;
+        private final List<String> blockTerms = new ArrayList<String>();
+        private final List<Long> blockOffsets = new ArrayList<Long>();
+        private final ByteArrayOutputStream postings = new ByteArrayOutputStream();
+        private byte[] previous = new byte[0];
+        private int terms = 0;
+
+        private SegmentWriter(OutputStream out) {
+            this.out = new DataOutputStream(out);
+        }
+
+        private void write(String term, int[] ids, int size) throws IOException {
+
+            byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            if (terms % BLOCK_TERMS == 0) {
+                blockTerms.add(term);
+                blockOffsets.add((long) out.size());
+            } else {
+                int max = Math.min(previous.length, bytes.length);
+                while (shared < max && previous[shared] == bytes[shared])
+                    shared++;
+            }
+            writeVarint(out, shared);
+            writeVarint(out, bytes.length - shared);
+            out.write(bytes, shared, bytes.length - shared);
+
+            postings.reset();
+            writeVarint(postings, size);
+            int last = 0;
+            for (int i = 0; i < size; i++) {
+                writeVarint(postings, ids[i] - last);
+                last = ids[i];
+            }
+            writeVarint(out, postings.size());
+            postings.writeTo(out);
+
+            previous = bytes;
+            terms++;
+        }
+
+        private Segment finish(Path file, int level) throws IOException {
+            out.close();
+            long[] offsets = new long[blockOffsets.size()];
+            for (int i = 0; i < offsets.length; i++)
+                offsets[i] = blockOffsets.get(i);
+            return new Segment(file, blockTerms.toArray(new String[0]), offsets, Files.size(file), level);
+        }
+    }
+
+    // Cursor of a segment in a merge, ordered by term then by segment age
+    private static class Cursor implements Comparable<Cursor> {
+
+        private final SegmentReader reader;
+        private final int age;
+
+        private Cursor(SegmentReader reader, int age) {
+            this.reader = reader;
+            this.age = age;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            int compared = reader.term.compareTo(other.reader.term);
+            return compared != 0 ? compared : Integer.compare(age, other.age);
+        }
+    }
+
+    public TrafficIndex(long bufferMaxBytes, int maxDepth, int maxNodes) {
+        this.bufferMaxBytes = bufferMaxBytes;
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+    }
+
+    // Index the terms of records under id, greater than any id added before
+    public void add(int id, List<JsonNode> records) throws IOException {
+
+        Set<String> terms = terms(records, maxDepth, maxNodes);
+        lock.writeLock().lock();
+        try {
+            for (String term : terms) {
+                Postings postings = buffer.get(term);
+                if (postings == null) {
+                    postings = new Postings();
+                    buffer.put(term, postings);
+                    bufferBytes += TERM_OVERHEAD + 2L * term.length();
+                }
+                postings.add(id);
+                bufferBytes += 4;
+            }
+            documents++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (bufferBytes >= bufferMaxBytes)
+            flush();
+    }
+
+    // Write buffered terms to a new segment, then merge the newest segments while they have the same level
+    public void flush() throws IOException {
+
+        // Only this thread changes buffer
+        Map<String, Postings> flushed = buffer;
+        if (flushed.isEmpty())
+            return;
+
+        // Segments live in a private temporary directory, created on first flush
+        if (directory == null)
+            directory = Files.createTempDirectory("burp-jq-index");
+        List<String> terms = new ArrayList<String>(flushed.keySet());
+        Collections.sort(terms);
+        Path file = directory.resolve("segment-" + nextSegment++);
+        SegmentWriter writer = new SegmentWriter(new BufferedOutputStream(Files.newOutputStream(file)));
+        for (String term : terms) {
+            Postings postings = flushed.get(term);
+            writer.write(term, postings.ids, postings.size);
+        }
+        Segment segment = writer.finish(file, 0);
+
+        // Buffer and segment are swapped at once, lookups never miss terms
+        lock.writeLock().lock();
+        try {
+            List<Segment> updated = new ArrayList<Segment>(segments);
+            updated.add(segment);
+            segments = updated;
+            buffer = new HashMap<String, Postings>();
+            bufferBytes = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        while (segments.size() >= 2 && segments.get(segments.size() - 1).level == segments.get(segments.size() - 2).level)
+            merge(segments.size() - 2);
+    }
+
+    // Merge two adjacent segments, ids of the older one all come first
+    private void merge(int first) throws IOException {
+
+        Segment older = segments.get(first);
+        Segment newer = segments.get(first + 1);
+        Path file = directory.resolve("segment-" + nextSegment++);
+        SegmentWriter writer = new SegmentWriter(new BufferedOutputStream(Files.newOutputStream(file)));
+        try (InputStream olderIn = new BufferedInputStream(Files.newInputStream(older.file));
+                InputStream newerIn = new BufferedInputStream(Files.newInputStream(newer.file))) {
+
+            PriorityQueue<Cursor> cursors = new PriorityQueue<Cursor>();
+            Cursor cursor = new Cursor(new SegmentReader(olderIn), 0);
+            if (cursor.reader.next())
+                cursors.add(cursor);
+            cursor = new Cursor(new SegmentReader(newerIn), 1);
+            if (cursor.reader.next())
+                cursors.add(cursor);
+
+            while (!cursors.isEmpty()) {
+                Cursor head = cursors.poll();
+                String term = head.reader.term;
+                int[] ids = head.reader.readPostings();
+                if (!cursors.isEmpty() && cursors.peek().reader.term.equals(term)) {
+                    Cursor same = cursors.poll();
+                    ids = concat(ids, same.reader.readPostings());
+                    if (same.reader.next())
+                        cursors.add(same);
+                }
+                writer.write(term, ids, ids.length);
+                if (head.reader.next())
+                    cursors.add(head);
+            }
+        }
+        Segment merged = writer.finish(file, older.level + 1);
+
+        // No lookup reads the merged segments once the write lock is held
+        lock.writeLock().lock();
+        try {
+            List<Segment> updated = new ArrayList<Segment>(segments);
+            updated.set(first, merged);
+            updated.remove(first + 1);
+            segments = updated;
+            older.close();
+            newer.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Sorted ids of the documents holding term
+    public int[] lookup(String term) throws IOException {
+
+        lock.readLock().lock();
+        try {
+            List<int[]> parts = new ArrayList<int[]>();
+            for (Segment segment : segments) {
+                int[] ids = segment.lookup(term);
+                if (ids != null)
+                    parts.add(ids);
+            }
+            Postings postings = buffer.get(term);
+            if (postings != null)
+                parts.add(Arrays.copyOf(postings.ids, postings.size));
+
+            int[] ids = new int[0];
+            for (int[] part : parts)
+                ids = concat(ids, part);
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getDocuments() {
+        return documents;
+    }
+
+    public int getSegments() {
+        return segments.size();
+    }
+
+    // Bytes of segment files on disk
+    public long getDiskBytes() {
+        long bytes = 0;
+        for (Segment segment : segments)
+            bytes += segment.size;
+        return bytes;
+    }
+
+    // Approximate bytes of buffered terms
+    public long getBufferBytes() {
+        return bufferBytes;
+    }
+
+    // Delete segment files, from the thread adding documents
+    public void clear() throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : segments)
+                segment.close();
+            segments = new ArrayList<Segment>();
+            buffer = new HashMap<String, Postings>();
+            bufferBytes = 0;
+            documents = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Delete segment files and their directory
+    public void close() throws IOException {
+        clear();
+        if (directory != null)
+            Files.deleteIfExists(directory);
+    }
+
+    // Terms of JSON documents: paths, paths with their scalar values and object keys
+    // Paths are jq paths where any array index is written [], like Schema, e.g. .data[].id
+    public static Set<String> terms(List<JsonNode> records, int maxDepth, int maxNodes) {
+
+        Set<String> terms = new HashSet<String>();
+        ArrayDeque<JsonNode> nodes = new ArrayDeque<JsonNode>();
+        ArrayDeque<String> paths = new ArrayDeque<String>();
+        for (JsonNode record : records) {
+            nodes.push(record);
+            paths.push("");
+        }
+
+        // Depth first without recursion, each path is also the depth of its node
+        int walked = 0;
+        while (!nodes.isEmpty() && walked++ < maxNodes) {
+            JsonNode node = nodes.pop();
+            String path = paths.pop();
+            if (!path.isEmpty())
+                addTerm(terms, pathTerm(path));
+
+            if (node.isObject()) {
+                Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    addTerm(terms, KEY + field.getKey());
+                    push(nodes, paths, field.getValue(), path + "." + field.getKey(), maxDepth);
+                }
+            } else if (node.isArray()) {
+                for (JsonNode element : node)
+                    push(nodes, paths, element, path + "[]", maxDepth);
+            } else if (!path.isEmpty()) {
+                addTerm(terms, valueTerm(path, node));
+            }
+        }
+        return terms;
+    }
+
+    private static void push(ArrayDeque<JsonNode> nodes, ArrayDeque<String> paths, JsonNode node, String path, int maxDepth) {
+        if (path.length() > MAX_TERM_CHARS || depth(path) > maxDepth)
+            return;
+        nodes.push(node);
+        paths.push(path);
+    }
+
+    private static int depth(String path) {
+        int depth = 0;
+        for (int i = 0; i < path.length(); i++)
+            if (path.charAt(i) == '.' || path.charAt(i) == '[')
+                depth++;
+        return depth;
+    }
+
+    private static void addTerm(Set<String> terms, String term) {
+        if (term.length() <= MAX_TERM_CHARS)
+            terms.add(term);
+    }
+
+    public static String pathTerm(String path) {
+        return PATH + path;
+    }
+
+    // Values are canonical so that 1 and 1.0 match like in jq, long strings are hashed
+    public static String valueTerm(String path, JsonNode value) {
+        String text;
+        if (value.isNumber() && value.doubleValue() == Math.rint(value.doubleValue()) && Math.abs(value.doubleValue()) < 1L << 53)
+            text = String.valueOf((long) value.doubleValue());
+        else if (value.isNumber())
+            text = String.valueOf(value.doubleValue());
+        else
+            text = value.toString();
+        if (text.length() > MAX_VALUE_CHARS)
+            text = "#" + Long.toHexString(hash(text));
+        return VALUE + path + '\u0000' + text;
+    }
+
+    public static String keyTerm(String key) {
+        return KEY + key;
+    }
+
+    private static long hash(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // Ids of both sorted arrays, a is older
+    private static int[] concat(int[] a, int[] b) {
+        if (a.length == 0)
+            return b;
+        if (b.length == 0)
+            return a;
+        int[] ids = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, ids, a.length, b.length);
+        return ids;
+    }
+
+    // Ids in both sorted arrays
+    public static int[] intersect(int[] a, int[] b) {
+        int[] ids = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j])
+                i++;
+            else if (a[i] > b[j])
+                j++;
+            else {
+                ids[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+}
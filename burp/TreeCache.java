@@ -0,0 +1,118 @@
+package burp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+
+// LRU cache of parsed message bodies keyed by content hash, bounded by approximate retained bytes
+// The hash only finds candidates, a hit is always compared byte for byte with the body it was parsed from
+public class TreeCache {
+
+    // Rough ratio between a JsonNode tree footprint and its serialized size
+    private static final int TREE_OVERHEAD = 6;
+    private static final long PRIME = 0x9e3779b97f4a7c15L;
+
+    private final long capacity;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long weight = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    // Parsed body along with a copy of the bytes it was parsed from
+    public static class Entry {
+
+        public final List<JsonNode> inputs;
+        public final Schema schema;
+        private final byte[] source;
+        private final long weight;
+
+        public Entry(List<JsonNode> inputs, Schema schema, byte[] content, int offset, int length) {
+            this.inputs = inputs;
+            this.schema = schema;
+            this.source = Arrays.copyOfRange(content, offset, offset + length);
+            this.weight = (long) length * (TREE_OVERHEAD + 1);
+        }
+
+        private boolean isOf(byte[] content, int offset, int length) {
+            return ByteBuffer.wrap(source).equals(ByteBuffer.wrap(content, offset, length));
+        }
+    }
+
+    public TreeCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    // Build cache key from body bytes and charset used to decode them
+    public static String key(byte[] content, int offset, int length, String charset) {
+        return Long.toHexString(hash(content, offset, length)) + "/" + length + "/" + charset;
+    }
+
+    // Fast 64 bits hash, reading 8 bytes at a time
+    public static long hash(byte[] content, int offset, int length) {
+
+        ByteBuffer buffer = ByteBuffer.wrap(content, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+        long h = length * PRIME;
+        while (buffer.remaining() >= 8)
+            h = (h ^ mix(buffer.getLong())) * PRIME;
+        while (buffer.hasRemaining())
+            h = (h ^ (buffer.get() & 0xff)) * PRIME;
+        return mix(h);
+    }
+
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    // Entry for the body bytes, null unless its key matches and its bytes are the same
+    public synchronized Entry get(String key, byte[] content, int offset, int length) {
+        Entry entry = entries.get(key);
+        if (entry == null || !entry.isOf(content, offset, length)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry;
+    }
+
+    public synchronized void put(String key, Entry entry) {
+
+        // Do not let a single huge body flush the whole cache
+        if (entry.weight > capacity)
+            return;
+
+        Entry previous = entries.put(key, entry);
+        if (previous != null)
+            weight -= previous.weight;
+        weight += entry.weight;
+
+        // Evict least recently used entries until under capacity
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (weight > capacity && eldest.hasNext()) {
+            weight -= eldest.next().getValue().weight;
+            eldest.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Tree cache: %d entries, ~%d/%d KB, %d hits, %d misses",
+            entries.size(), weight / 1024, capacity / 1024, hits, misses);
+    }
+}
@@ -0,0 +1,58 @@
+package burp;
+
+import java.util.concurrent.TimeUnit;
+
+import net.thisptr.jackson.jq.exception.JsonQueryException;
+import net.thisptr.jackson.jq.JsonQuery;
+import net.thisptr.jackson.jq.Version;
+import net.thisptr.jackson.jq.Versions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// Compiling filters, as on each keystroke in live mode, with and without the query cache
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompileBenchmark {
+
+    private static final Version jqVersion = Versions.JQ_1_6;
+
+    @Param({ ".", ".data[] | select(.active) | .name", "[.data[] | {id, city: .address.city}] | group_by(.city) | map({(.[0].city): length}) | add" })
+    public String filters;
+
+    private JqCache queryCache;
+
+    @Setup
+    public void setup() throws JsonQueryException {
+        queryCache = new JqCache(128);
+        queryCache.compile(filters, jqVersion);
+    }
+
+    @Benchmark
+    public JsonQuery compile() throws JsonQueryException {
+        return JsonQuery.compile(filters, jqVersion);
+    }
+
+    @Benchmark
+    public JsonQuery compileCached() throws JsonQueryException {
+        return queryCache.compile(filters, jqVersion);
+    }
+
+    @Benchmark
+    public StreamingQuery compileStreaming() throws JsonQueryException {
+        return StreamingQuery.compile(filters, jqVersion, queryCache);
+    }
+}
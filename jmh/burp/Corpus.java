@@ -0,0 +1,99 @@
+package burp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+
+// Deterministic JSON responses representative of what goes through the extension
+// Every document has a top level "data" field so that the same filters apply to all of them
+public class Corpus {
+
+    public static final String SMALL = "small";
+    public static final String MEDIUM = "1mb";
+    public static final String LARGE = "50mb";
+    public static final String NESTED = "nested";
+    public static final String WIDE = "wide";
+    public static final String NDJSON = "ndjson";
+
+    private static final String HEADERS = "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n\r\n";
+    public static final int BODY_OFFSET = HEADERS.length();
+    private static final int NESTED_DEPTH = 512;
+    private static final int WIDE_SIZE = 1 << 20;
+    private static final int NDJSON_BYTES = 8 << 20;
+
+    // Full HTTP response for a corpus name
+    public static byte[] response(String name) {
+        return (HEADERS + body(name)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static String body(String name) {
+        Random random = new Random(42);
+        switch (name) {
+            case SMALL: return records(random, 1 << 10);
+            case MEDIUM: return records(random, 1 << 20);
+            case LARGE: return records(random, 50 << 20);
+            case NESTED: return nested(random);
+            case WIDE: return wide(random);
+            case NDJSON: return ndjson(random);
+            default: throw new IllegalArgumentException("Unknown corpus " + name);
+        }
+    }
+
+    // {"data":[{...},...]} of about size bytes
+    private static String records(Random random, int size) {
+        StringBuilder sb = new StringBuilder(size + 512);
+        sb.append("{\"data\":[");
+        for (int i = 0; sb.length() < size; i++) {
+            if (i > 0)
+                sb.append(',');
+            record(random, i, sb);
+        }
+        return sb.append("]}").toString();
+    }
+
+    // {"data":{"data":...{"id":0}...}}
+    private static String nested(Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < NESTED_DEPTH; i++)
+            sb.append("{\"id\":").append(i).append(",\"tags\":[\"t").append(random.nextInt(100)).append("\"],\"data\":");
+        sb.append("null");
+        for (int i = 0; i < NESTED_DEPTH; i++)
+            sb.append('}');
+        return sb.toString();
+    }
+
+    // {"data":[1.5,...]} with one large array of scalars
+    private static String wide(Random random) {
+        StringBuilder sb = new StringBuilder(WIDE_SIZE * 8);
+        sb.append("{\"data\":[");
+        for (int i = 0; i < WIDE_SIZE; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(random.nextInt(1000000) / 100.0);
+        }
+        return sb.append("]}").toString();
+    }
+
+    // One record per line
+    private static String ndjson(Random random) {
+        StringBuilder sb = new StringBuilder(NDJSON_BYTES + 512);
+        for (int i = 0; sb.length() < NDJSON_BYTES; i++) {
+            sb.append("{\"data\":");
+            record(random, i, sb);
+            sb.append("}\n");
+        }
+        return sb.toString();
+    }
+
+    private static void record(Random random, int id, StringBuilder sb) {
+        sb.append("{\"id\":").append(id)
+            .append(",\"name\":\"user").append(random.nextInt(100000)).append('"')
+            .append(",\"email\":\"user").append(id).append("@example.com\"")
+            .append(",\"active\":").append(random.nextBoolean())
+            .append(",\"score\":").append(random.nextInt(10000) / 100.0)
+            .append(",\"role\":").append(random.nextInt(10) == 0 ? "null" : "\"user\"")
+            .append(",\"tags\":[\"t").append(random.nextInt(20)).append("\",\"t").append(random.nextInt(20)).append("\"]")
+            .append(",\"address\":{\"city\":\"c").append(random.nextInt(500)).append("\",\"zip\":\"")
+            .append(10000 + random.nextInt(90000)).append("\"}}");
+    }
+}
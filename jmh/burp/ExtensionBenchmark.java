@@ -0,0 +1,91 @@
+package burp;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.thisptr.jackson.jq.BuiltinFunctionLoader;
+import net.thisptr.jackson.jq.Versions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// Extension entry points driven through stub callbacks: editor tabs creation, in-flight rules and scanner checks
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ExtensionBenchmark {
+
+    private static final byte[] REQUEST = "POST / HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\n\r\n{}".getBytes();
+
+    @Param({ Corpus.SMALL, Corpus.MEDIUM })
+    public String corpus;
+
+    private BurpExtender extension;
+    private JqRules rules;
+    private JqChecks checks;
+    private byte[] response;
+
+    @Setup
+    public void setup() {
+        Map<String, String> settings = new HashMap<String, String>();
+        settings.put("rules", "[{\"enabled\":true,\"isRequest\":false,\"proxyOnly\":true,\"url\":\"\",\"filters\":\".data |= map(del(.email))\"}]");
+        settings.put("scannerEnabled", "true");
+        settings.put("scannerPredicate", ".data | any(.role == \"admin\")");
+        settings.put("warmUp", "false");
+        IBurpExtenderCallbacks callbacks = Stubs.callbacks(settings);
+
+        extension = new BurpExtender();
+        extension.registerExtenderCallbacks(callbacks);
+        Builtins builtins = new Builtins(Versions.JQ_1_6, Runnable::run);
+        rules = new JqRules(callbacks, new JqCache(8), builtins, Versions.JQ_1_6, BurpExtender.EVALUATION_MAX_MILLIS);
+        checks = new JqChecks(callbacks, new JqCache(8), builtins, Versions.JQ_1_6, BurpExtender.EVALUATION_MAX_MILLIS,
+            BurpExtender.OUTPUT_MAX_RESULTS);
+        response = Corpus.response(corpus);
+    }
+
+    // Stop the executors and timers the extension, rules and checks started, so that they do not run through later trials
+    @TearDown
+    public void tearDown() {
+        rules.shutdown();
+        checks.shutdown();
+        extension.extensionUnloaded();
+    }
+
+    @Benchmark
+    public net.thisptr.jackson.jq.Scope loadBuiltins() {
+        net.thisptr.jackson.jq.Scope scope = net.thisptr.jackson.jq.Scope.newEmptyScope();
+        BuiltinFunctionLoader.getInstance().loadFunctions(Versions.JQ_1_6, scope);
+        return scope;
+    }
+
+    @Benchmark
+    public IMessageEditorTab createTab() {
+        return extension.createNewInstance(null, false);
+    }
+
+    @Benchmark
+    public byte[] processHttpMessage() {
+        IHttpRequestResponse message = Stubs.message(REQUEST, response);
+        rules.processHttpMessage(IBurpExtenderCallbacks.TOOL_PROXY, false, message);
+        return message.getResponse();
+    }
+
+    @Benchmark
+    public Object doPassiveScan() {
+        return checks.doPassiveScan(Stubs.message(REQUEST, response));
+    }
+}
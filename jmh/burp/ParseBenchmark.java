@@ -0,0 +1,81 @@
+package burp;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// Loading a message in the editor tab: hashing the body, parsing it and enumerating its keys
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    private static final int KEYS_MAX_DEPTH = 64;
+    private static final int KEYS_MAX_NODES = 100000;
+
+    @Param({ Corpus.SMALL, Corpus.MEDIUM, Corpus.LARGE, Corpus.NESTED, Corpus.WIDE, Corpus.NDJSON })
+    public String corpus;
+
+    private byte[] content;
+    private int bodyOffset;
+    private List<JsonNode> records;
+    private Schema schema;
+
+    @Setup
+    public void setup() throws IOException {
+        content = Corpus.response(corpus);
+        bodyOffset = Corpus.BODY_OFFSET;
+        records = BurpExtender.readRecords(content, bodyOffset, content.length, null);
+        schema = new Schema(records, KEYS_MAX_DEPTH, KEYS_MAX_NODES);
+    }
+
+    // Deciding whether the editor tab is enabled, formerly analyzeResponse on every message shown
+    @Benchmark
+    public ContentSniffer sniff() {
+        return ContentSniffer.sniff(content);
+    }
+
+    @Benchmark
+    public String treeCacheKey() {
+        return TreeCache.key(content, bodyOffset, content.length - bodyOffset, "null");
+    }
+
+    // Single document, only the first record of NDJSON bodies
+    @Benchmark
+    public JsonNode readTree() throws IOException {
+        return BurpExtender.readBody(content, bodyOffset, content.length, null);
+    }
+
+    @Benchmark
+    public List<JsonNode> readRecords() throws IOException {
+        return BurpExtender.readRecords(content, bodyOffset, content.length, null);
+    }
+
+    // Keys enumeration for completion, formerly JQTab.getKeys()
+    @Benchmark
+    public Schema keys() {
+        return new Schema(records, KEYS_MAX_DEPTH, KEYS_MAX_NODES);
+    }
+
+    @Benchmark
+    public PrefixIndex keysIndex() {
+        return new PrefixIndex(schema.getKeys());
+    }
+}
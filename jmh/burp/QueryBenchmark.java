@@ -0,0 +1,89 @@
+package burp;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import net.thisptr.jackson.jq.BuiltinFunctionLoader;
+import net.thisptr.jackson.jq.JsonQuery;
+import net.thisptr.jackson.jq.Version;
+import net.thisptr.jackson.jq.Versions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+// Applying compiled filters to parsed inputs, and to the token stream of bodies too large to be parsed
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+    private static final Version jqVersion = Versions.JQ_1_6;
+
+    @Param({ Corpus.SMALL, Corpus.MEDIUM, Corpus.LARGE, Corpus.NESTED, Corpus.WIDE, Corpus.NDJSON })
+    public String corpus;
+
+    // Identity, a path the streaming evaluation can follow, and a full traversal
+    @Param({ ".", ".data | length", "[.. | numbers] | add" })
+    public String filters;
+
+    private net.thisptr.jackson.jq.Scope scope;
+    private byte[] content;
+    private int bodyOffset;
+    private List<JsonNode> records;
+    private JsonQuery jq;
+    private StreamingQuery stream;
+
+    @Setup
+    public void setup() throws IOException {
+        scope = net.thisptr.jackson.jq.Scope.newEmptyScope();
+        BuiltinFunctionLoader.getInstance().loadFunctions(jqVersion, scope);
+        content = Corpus.response(corpus);
+        bodyOffset = Corpus.BODY_OFFSET;
+        records = BurpExtender.readRecords(content, bodyOffset, content.length, null);
+        JqCache queryCache = new JqCache(8);
+        jq = queryCache.compile(filters, jqVersion);
+        stream = StreamingQuery.compile(filters, jqVersion, queryCache);
+    }
+
+    @Benchmark
+    public void apply(Blackhole blackhole) throws IOException {
+        for (JsonNode input : records)
+            jq.apply(scope, input, blackhole::consume);
+    }
+
+    // Records are split in batches across cores, the evaluation path of the editor tab
+    @Benchmark
+    public void applyParallel(Blackhole blackhole) throws IOException {
+        ParallelQuery.apply(jq, scope, records, 0, null, blackhole::consume);
+    }
+
+    // Parse and apply, the evaluation path of bodies above streamingMinBytes
+    // Filters not starting with a path are applied to each record read from the stream
+    @Benchmark
+    public void applyStreaming(Blackhole blackhole) throws IOException {
+        try (JsonParser parser = BurpExtender.createParser(content, bodyOffset, content.length, null)) {
+            if (stream != null) {
+                stream.apply(scope, parser, blackhole::consume);
+            } else {
+                while (parser.nextToken() != null)
+                    jq.apply(scope, parser.readValueAsTree(), blackhole::consume);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package burp;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// Rendering outputs to the bytes shown in the editor tab, pretty or compact, raw strings or JSON
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+
+    private static final int OUTPUT_MAX_BYTES = 8 << 20;
+
+    @Param({ Corpus.SMALL, Corpus.MEDIUM, Corpus.LARGE, Corpus.NESTED, Corpus.WIDE, Corpus.NDJSON })
+    public String corpus;
+
+    @Param({ "true", "false" })
+    public boolean pretty;
+
+    @Param({ "true", "false" })
+    public boolean raw;
+
+    private List<JsonNode> records;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] content = Corpus.response(corpus);
+        records = BurpExtender.readRecords(content, Corpus.BODY_OFFSET, content.length, null);
+    }
+
+    // Whole output, as with "Show more" until nothing is truncated
+    @Benchmark
+    public byte[] render() throws IOException {
+        Renderer renderer = new Renderer(raw, pretty, Long.MAX_VALUE);
+        for (JsonNode record : records)
+            renderer.write(record);
+        return renderer.toByteArray();
+    }
+
+    // Output capped to the default outputMaxBytes setting
+    @Benchmark
+    public byte[] renderTruncated() throws IOException {
+        Renderer renderer = new Renderer(raw, pretty, OUTPUT_MAX_BYTES);
+        for (JsonNode record : records)
+            renderer.write(record);
+        return renderer.toByteArray();
+    }
+}
@@ -0,0 +1,166 @@
+package burp;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.JPanel;
+
+
+// Headless stand-ins for the Burp objects the extension uses, so that benchmarks run without Burp
+public class Stubs {
+
+    // Callbacks with in-memory settings, helpers parsing messages and text editors keeping their bytes
+    public static IBurpExtenderCallbacks callbacks(Map<String, String> settings) {
+
+        IExtensionHelpers helpers = stub(IExtensionHelpers.class, (name, args) -> {
+            switch (name) {
+                case "analyzeRequest": return args[args.length - 1] instanceof byte[]
+                    ? requestInfo((byte[]) args[args.length - 1])
+                    : requestInfo(((IHttpRequestResponse) args[0]).getRequest());
+                case "analyzeResponse": return responseInfo((byte[]) args[0]);
+                case "buildHttpMessage": return buildHttpMessage(toStrings((List<?>) args[0]), (byte[]) args[1]);
+                default: return null;
+            }
+        });
+
+        Map<String, String> copy = new HashMap<String, String>(settings);
+        return stub(IBurpExtenderCallbacks.class, (name, args) -> {
+            switch (name) {
+                case "getHelpers": return helpers;
+                case "createTextEditor": return textEditor();
+                case "createMessageEditor": return messageEditor();
+                case "loadExtensionSetting": return copy.get(args[0]);
+                case "saveExtensionSetting": return copy.put((String) args[0], (String) args[1]);
+                case "getProxyHistory": return new IHttpRequestResponse[0];
+                default: return null;
+            }
+        });
+    }
+
+    public static ITextEditor textEditor() {
+        JPanel component = new JPanel();
+        byte[][] text = { new byte[0] };
+        return stub(ITextEditor.class, (name, args) -> {
+            switch (name) {
+                case "getComponent": return component;
+                case "setText": text[0] = (byte[]) args[0]; return null;
+                case "getText": return text[0];
+                default: return null;
+            }
+        });
+    }
+
+    public static IMessageEditor messageEditor() {
+        JPanel component = new JPanel();
+        byte[][] message = { new byte[0] };
+        return stub(IMessageEditor.class, (name, args) -> {
+            switch (name) {
+                case "getComponent": return component;
+                case "setMessage": message[0] = (byte[]) args[0]; return null;
+                case "getMessage": return message[0];
+                default: return null;
+            }
+        });
+    }
+
+    // A proxied request/response pair whose response can be replaced, like in an HTTP listener
+    public static IHttpRequestResponse message(byte[] request, byte[] response) {
+        byte[][] content = { request, response };
+        return stub(IHttpRequestResponse.class, (name, args) -> {
+            switch (name) {
+                case "getRequest": return content[0];
+                case "getResponse": return content[1];
+                case "setRequest": content[0] = (byte[]) args[0]; return null;
+                case "setResponse": content[1] = (byte[]) args[0]; return null;
+                default: return null;
+            }
+        });
+    }
+
+    public static byte[] buildHttpMessage(List<String> headers, byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length + 256);
+        for (String header : headers) {
+            byte[] line = (header + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            out.write(line, 0, line.length);
+        }
+        out.write('\r');
+        out.write('\n');
+        out.write(body, 0, body.length);
+        return out.toByteArray();
+    }
+
+    private static IRequestInfo requestInfo(byte[] content) {
+        int bodyOffset = bodyOffset(content);
+        return stub(IRequestInfo.class, (name, args) -> {
+            switch (name) {
+                case "getBodyOffset": return bodyOffset;
+                case "getHeaders": return headers(content);
+                case "getMethod": return "POST";
+                case "getUrl": return new URL("http://localhost/");
+                case "getContentType": return (int) IRequestInfo.CONTENT_TYPE_JSON;
+                default: return null;
+            }
+        });
+    }
+
+    private static IResponseInfo responseInfo(byte[] content) {
+        int bodyOffset = bodyOffset(content);
+        return stub(IResponseInfo.class, (name, args) -> {
+            switch (name) {
+                case "getBodyOffset": return bodyOffset;
+                case "getHeaders": return headers(content);
+                case "getStatusCode": return (short) 200;
+                case "getStatedMimeType":
+                case "getInferredMimeType": return "JSON";
+                default: return null;
+            }
+        });
+    }
+
+    private static int bodyOffset(byte[] content) {
+        for (int i = 0; i + 3 < content.length; i++)
+            if (content[i] == '\r' && content[i + 1] == '\n' && content[i + 2] == '\r' && content[i + 3] == '\n')
+                return i + 4;
+        return content.length;
+    }
+
+    private static List<String> toStrings(List<?> list) {
+        List<String> strings = new ArrayList<String>(list.size());
+        for (Object item : list)
+            strings.add(String.valueOf(item));
+        return strings;
+    }
+
+    private static List<String> headers(byte[] content) {
+        String head = new String(content, 0, Math.max(0, bodyOffset(content) - 4), StandardCharsets.ISO_8859_1);
+        return new ArrayList<String>(Arrays.asList(head.split("\r\n")));
+    }
+
+    private interface Handler {
+        Object invoke(String name, Object[] args) throws Exception;
+    }
+
+    // Unhandled methods return null, or the default value of primitive types
+    private static <T> T stub(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals": return proxy == args[0];
+                    case "hashCode": return System.identityHashCode(proxy);
+                    default: return type.getSimpleName() + " stub";
+                }
+            }
+            Object value = handler.invoke(method.getName(), args == null ? new Object[0] : args);
+            if (value != null || !method.getReturnType().isPrimitive() || method.getReturnType() == void.class)
+                return value;
+            return Array.get(Array.newInstance(method.getReturnType(), 1), 0);
+        }));
+    }
+}